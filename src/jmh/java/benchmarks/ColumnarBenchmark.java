@@ -0,0 +1,68 @@
+package benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import main.ColumnarEvaluator;
+import main.CompiledExpression;
+import main.Expression;
+import main.ExpressionParseException;
+import main.SimpleExpressionParser;
+
+/**
+ * Compares evaluating an expression over a table a column at a time with evaluating it a row at a time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ColumnarBenchmark {
+	@Param({"1000", "1000000"})
+	public int rows;
+
+	private ColumnarEvaluator _columnar;
+	private CompiledExpression _compiled;
+	private double[][] _columns;
+	private double[] _out;
+
+	@Setup
+	public void setUp() throws ExpressionParseException {
+		final Expression expression = new SimpleExpressionParser().parse(ExpressionGenerator.sumOfProducts(26), false);
+		_columnar = new ColumnarEvaluator(expression);
+		_compiled = CompiledExpression.compile(expression);
+		final Random random = new Random(42);
+		_columns = new double[_compiled.getVariables().size()][rows];
+		for(int i = 0; i < _columns.length; i++) {
+			for(int j = 0; j < rows; j++) {
+				_columns[i][j] = random.nextDouble();
+			}
+		}
+		_out = new double[rows];
+	}
+
+	@Benchmark
+	public double[] columnar() {
+		_columnar.evaluate(_columns, _out);
+		return _out;
+	}
+
+	@Benchmark
+	public double[] rowAtATime() {
+		final double[] row = new double[_columns.length];
+		for(int j = 0; j < rows; j++) {
+			for(int i = 0; i < _columns.length; i++) {
+				row[i] = _columns[i][j];
+			}
+			_out[j] = _compiled.evaluate(row);
+		}
+		return _out;
+	}
+}
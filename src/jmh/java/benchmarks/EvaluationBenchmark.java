@@ -0,0 +1,47 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import main.CompiledExpression;
+import main.ExpressionParseException;
+import main.SimpleExpressionParser;
+
+/**
+ * Measures evaluating a compiled expression, which should cost nanoseconds per node and allocate nothing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EvaluationBenchmark {
+	@Param({"flat", "nested"})
+	public String shape;
+
+	@Param({"10", "100", "1000"})
+	public int size;
+
+	private CompiledExpression _compiled;
+	private double[] _values;
+
+	@Setup
+	public void setUp() throws ExpressionParseException {
+		_compiled = CompiledExpression.compile(new SimpleExpressionParser().parse(ExpressionGenerator.generate(shape, size), false));
+		_values = new double[_compiled.getVariables().size()];
+		for(int i = 0; i < _values.length; i++) {
+			_values[i] = i + 0.5;
+		}
+	}
+
+	@Benchmark
+	public double evaluate() {
+		return _compiled.evaluate(_values);
+	}
+}
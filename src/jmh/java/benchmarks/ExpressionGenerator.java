@@ -0,0 +1,51 @@
+package benchmarks;
+
+/**
+ * Makes expressions of a given size for the benchmarks. The same size always makes the same expression,
+ * so runs of different versions can be compared.
+ */
+public class ExpressionGenerator {
+	/**
+	 * Makes a flat sum of products, like "1*a+2*b+3*c+...", with no parentheses
+	 * @param terms the number of terms in the sum
+	 * @return the expression
+	 */
+	public static String sumOfProducts(int terms) {
+		final StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < terms; i++) {
+			if(i != 0) sb.append('+');
+			sb.append(i).append('*').append((char) ('a' + i % 26));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Makes an expression with parentheses nested depth deep, alternating sums and products,
+	 * like "(1+a*(2+b*(3+c)))"
+	 * @param depth how many levels of parentheses to make
+	 * @return the expression
+	 */
+	public static String nested(int depth) {
+		final StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < depth; i++) {
+			sb.append('(').append(i).append('+').append((char) ('a' + i % 26)).append('*');
+		}
+		sb.append('x');
+		for(int i = 0; i < depth; i++) {
+			sb.append(')');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Makes an expression of a given size and shape
+	 * @param shape "flat" for sumOfProducts, "nested" for nested
+	 * @param size the number of terms or levels
+	 * @return the expression
+	 */
+	public static String generate(String shape, int size) {
+		if(shape.equals("flat")) return sumOfProducts(size);
+		if(shape.equals("nested")) return nested(size);
+		throw new IllegalArgumentException("Unknown shape: " + shape);
+	}
+}
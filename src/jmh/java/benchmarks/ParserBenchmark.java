@@ -0,0 +1,44 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import main.Expression;
+import main.ExpressionParseException;
+import main.SimpleExpressionParser;
+
+/**
+ * Measures parsing over inputs of increasing size and nesting, to show how parse time and allocation scale.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParserBenchmark {
+	@Param({"flat", "nested"})
+	public String shape;
+
+	@Param({"10", "100", "1000", "10000"})
+	public int size;
+
+	private SimpleExpressionParser _parser;
+	private String _input;
+
+	@Setup
+	public void setUp() {
+		_parser = new SimpleExpressionParser();
+		_input = ExpressionGenerator.generate(shape, size);
+	}
+
+	@Benchmark
+	public Expression parse() throws ExpressionParseException {
+		return _parser.parse(_input, false);
+	}
+}
@@ -0,0 +1,123 @@
+package benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import main.Expression;
+import main.ExpressionKind;
+import main.ExpressionParseException;
+import main.ParsedExpression;
+import main.SimpleExpressionParser;
+
+/**
+ * Measures the tree operations the editor uses, over parsed expressions of increasing size and nesting.
+ * The reordering benchmarks move the middle child of the first operator in the tree, which for the flat shape
+ * is one of size terms.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TreeBenchmark {
+	@Param({"flat", "nested"})
+	public String shape;
+
+	@Param({"10", "100", "1000", "10000"})
+	public int size;
+
+	private ParsedExpression _tree;
+	private ParsedExpression _moving;
+	private ParsedExpression _reordered;
+	private ParsedExpression _original;
+	private boolean _isReordered;
+
+	@Setup
+	public void setUp() throws ExpressionParseException {
+		_tree = (ParsedExpression) new SimpleExpressionParser().parse(ExpressionGenerator.generate(shape, size), false);
+		ParsedExpression parent = _tree;
+		while(parent.getKind() == ExpressionKind.PARENTHESIZED) {
+			parent = (ParsedExpression) parent.getChildren().get(0);
+		}
+		_moving = (ParsedExpression) parent.getChildren().get(parent.getChildren().size()/2);
+		_reordered = _moving.getConfiguration(0);
+		_original = (ParsedExpression) parent.deepCopy();
+		_isReordered = false;
+	}
+
+	@Benchmark
+	public Expression deepCopy() {
+		return _tree.deepCopy();
+	}
+
+	@Benchmark
+	public String convertToString() {
+		return _tree.convertToString(0);
+	}
+
+	@Benchmark
+	public Map<Integer, Expression> getOtherPossibleConfigurations() {
+		return _moving.getOtherPossibleConfigurations();
+	}
+
+	/**
+	 * Moves the middle child to the front and back again on alternate calls, so the tree never drifts
+	 * @return the reordered expression
+	 */
+	@Benchmark
+	public Expression convertTo() {
+		final ParsedExpression parent = (ParsedExpression) _moving.getParent();
+		parent.convertTo(_isReordered ? _original : _reordered);
+		_isReordered = !_isReordered;
+		return parent;
+	}
+
+	/**
+	 * The same moves as convertTo, made in place the way the editor's drag makes them
+	 * @return the reordered expression
+	 */
+	@Benchmark
+	public Expression moveChild() {
+		final ParsedExpression parent = (ParsedExpression) _moving.getParent();
+		final int middle = parent.getChildren().size()/2;
+		if(_isReordered) parent.moveChild(0, middle);
+		else parent.moveChild(middle, 0);
+		_isReordered = !_isReordered;
+		return parent;
+	}
+
+	/**
+	 * Parsed trees are already flat, so flatten is measured on a fresh binary tree each time, the shape flatten has
+	 * the most work to do on. Each tree is made outside the measured time.
+	 */
+	@State(Scope.Thread)
+	public static class Unflattened {
+		ParsedExpression _tree;
+
+		@Setup(Level.Invocation)
+		public void setUp(TreeBenchmark benchmark) {
+			ParsedExpression tree = new ParsedExpression("0");
+			for(int i = 1; i < benchmark.size; i++) {
+				final ParsedExpression sum = new ParsedExpression("+");
+				sum.addSubexpression(tree);
+				sum.addSubexpression(new ParsedExpression(Integer.toString(i)));
+				tree = sum;
+			}
+			_tree = tree;
+		}
+	}
+
+	@Benchmark
+	public Expression flatten(Unflattened unflattened) {
+		unflattened._tree.flatten();
+		return unflattened._tree;
+	}
+}
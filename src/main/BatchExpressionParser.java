@@ -0,0 +1,115 @@
+package main;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Stream;
+
+/**
+ * Parses many expressions at once, spreading the work over the threads of a ForkJoinPool.
+ * Results come back in the same order as the inputs, and an input that can't be parsed gives a failed
+ * ParseResult instead of aborting the rest of the batch. Expressions are parsed without JavaFX controls;
+ * their nodes are made the first time ExpressionView.of is called.
+ */
+public class BatchExpressionParser {
+	/**
+	 * How many pieces each worker thread's share of a batch is split into, so that threads which get
+	 * quick expressions can steal work from threads that get slow ones
+	 */
+	private static final int SPLITS_PER_THREAD = 8;
+
+	final private ExpressionParser _parser;
+	final private ForkJoinPool _pool;
+
+	/**
+	 * Creates a batch parser that parses with a LinearExpressionParser on the common ForkJoinPool
+	 */
+	public BatchExpressionParser() {
+		this(new LinearExpressionParser(), ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Creates a batch parser
+	 * @param parser the parser to use, which must be safe to call from several threads at once
+	 * @param pool the pool to parse on
+	 */
+	public BatchExpressionParser(ExpressionParser parser, ForkJoinPool pool) {
+		_parser = parser;
+		_pool = pool;
+	}
+
+	/**
+	 * Parses every input in parallel
+	 * @param inputs the expressions to parse
+	 * @return the result for each input, in the same order as the inputs
+	 */
+	public List<ParseResult> parseAll(List<? extends CharSequence> inputs) {
+		final CharSequence[] toParse = inputs.toArray(new CharSequence[inputs.size()]);
+		final ParseResult[] results = new ParseResult[toParse.length];
+		final int chunkSize = Math.max(1, toParse.length / (_pool.getParallelism() * SPLITS_PER_THREAD));
+		_pool.invoke(new ParseTask(toParse, results, 0, toParse.length, chunkSize));
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * Parses a stream of inputs in parallel. The returned stream is lazy and runs on the pool its terminal
+	 * operation runs in (the common pool unless it is called from inside another ForkJoinPool).
+	 * Its encounter order is the same as the inputs'.
+	 * @param inputs the expressions to parse
+	 * @return a stream of the result for each input
+	 */
+	public Stream<ParseResult> parseAll(Stream<? extends CharSequence> inputs) {
+		return inputs.parallel().map(input -> parse(input));
+	}
+
+	/**
+	 * Parses a single input, catching the parse exception if there is one. A LinearExpressionParser reads the input
+	 * in place; other parsers get it as a String.
+	 * @param input the expression to parse
+	 * @return the result of parsing the input
+	 */
+	public ParseResult parse(CharSequence input) {
+		try {
+			if(_parser instanceof LinearExpressionParser) {
+				return ParseResult.success(((LinearExpressionParser) _parser).parse(input, 0, input.length(), false));
+			}
+			return ParseResult.success(_parser.parse(input.toString(), false));
+		} catch (ExpressionParseException epe) {
+			return ParseResult.failure(epe);
+		}
+	}
+
+	/**
+	 * Task that parses a range of the inputs, splitting itself in half until the range is small enough
+	 */
+	private class ParseTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		final private CharSequence[] _inputs;
+		final private ParseResult[] _results;
+		final private int _start;
+		final private int _end;
+		final private int _chunkSize;
+
+		ParseTask(CharSequence[] inputs, ParseResult[] results, int start, int end, int chunkSize) {
+			_inputs = inputs;
+			_results = results;
+			_start = start;
+			_end = end;
+			_chunkSize = chunkSize;
+		}
+
+		protected void compute() {
+			if(_end - _start <= _chunkSize) {
+				for(int i = _start; i < _end; i++) {
+					_results[i] = parse(_inputs[i]);
+				}
+				return;
+			}
+			final int middle = (_start + _end) >>> 1;
+			invokeAll(new ParseTask(_inputs, _results, _start, middle, _chunkSize),
+					new ParseTask(_inputs, _results, middle, _end, _chunkSize));
+		}
+	}
+}
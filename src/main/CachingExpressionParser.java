@@ -0,0 +1,143 @@
+package main;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * ExpressionParser that remembers the trees it has parsed, so parsing the same text again only costs a lookup and a copy.
+ * Text is looked up with its spaces removed, so "2 * x" and "2*x" share one entry. The cache is a least-recently-used map
+ * bounded by weight, where the weight of an entry is the length of its text (roughly its number of nodes); once the
+ * total weight is over the limit the least recently used entries are evicted. Trees are cached as ImmutableExpressions,
+ * which can be shared between threads safely, and every call returns a new mutable copy of the cached tree, so callers
+ * can change what they get back without affecting the cache or each other.
+ */
+public class CachingExpressionParser implements ExpressionParser {
+	final private ExpressionParser _parser;
+	final private long _maxWeight;
+	final private LinkedHashMap<String, ImmutableExpression> _cache;
+	private long _weight;
+	private long _hits;
+	private long _misses;
+	private long _evictions;
+
+	/**
+	 * Creates a cache in front of a SimpleExpressionParser
+	 * @param maxWeight the maximum total length of the cached expressions' text
+	 */
+	public CachingExpressionParser(long maxWeight) {
+		this(new SimpleExpressionParser(), maxWeight);
+	}
+
+	/**
+	 * Creates a cache in front of a parser
+	 * @param parser the parser to use for text that isn't cached, which must be safe to call from several threads at once
+	 * @param maxWeight the maximum total length of the cached expressions' text
+	 */
+	public CachingExpressionParser(ExpressionParser parser, long maxWeight) {
+		if(maxWeight <= 0) throw new IllegalArgumentException("maxWeight must be positive");
+		_parser = parser;
+		_maxWeight = maxWeight;
+		_cache = new LinkedHashMap<String, ImmutableExpression>(16, 0.75f, true); //access order, so the eldest entry is the least recently used
+	}
+
+	public Expression parse(String str, boolean withJavaFXControls) throws ExpressionParseException {
+		final ExpressionMetrics.Timer timer = ExpressionMetrics.start(ExpressionMetrics.Operation.PARSE);
+		final String key = normalize(str);
+		ImmutableExpression cached;
+		synchronized(this) {
+			cached = _cache.get(key);
+			if(cached != null) _hits++;
+			else _misses++;
+		}
+		final boolean hit = cached != null;
+		if(!hit) {
+			cached = ImmutableExpression.of(_parser.parse(key, false));
+			synchronized(this) {
+				if(!_cache.containsKey(key) && key.length() <= _maxWeight) {
+					_cache.put(key, cached);
+					_weight += key.length();
+					evict();
+				}
+			}
+		}
+		// cached trees can't be changed, so they can be copied outside the lock
+		final Expression expression = cached.toParsedExpression();
+		if(hit) timer.stop(expression); //a miss is measured by the parser behind the cache, so it isn't recorded twice
+		return expression;
+	}
+
+	/**
+	 * Helper function to evict least recently used entries until the cache is within its weight
+	 */
+	private void evict() {
+		final Iterator<Map.Entry<String, ImmutableExpression>> eldest = _cache.entrySet().iterator();
+		while(_weight > _maxWeight && eldest.hasNext()) {
+			_weight -= eldest.next().getKey().length();
+			eldest.remove();
+			_evictions++;
+		}
+	}
+
+	/**
+	 * Removes the spaces from a string, which the parsers ignore anyway
+	 * @param str the string to normalize
+	 * @return str without any spaces, or str itself if it has none
+	 */
+	private static String normalize(String str) {
+		if(str.indexOf(' ') < 0) return str;
+		final StringBuilder sb = new StringBuilder(str.length());
+		for(int i = 0; i < str.length(); i++) {
+			if(str.charAt(i) != ' ') sb.append(str.charAt(i));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns how many parses were answered from the cache
+	 * @return the number of cache hits
+	 */
+	public synchronized long getHitCount() {
+		return _hits;
+	}
+
+	/**
+	 * Returns how many parses had to go to the underlying parser, including ones that failed
+	 * @return the number of cache misses
+	 */
+	public synchronized long getMissCount() {
+		return _misses;
+	}
+
+	/**
+	 * Returns how many entries have been evicted to keep the cache within its weight
+	 * @return the number of evictions
+	 */
+	public synchronized long getEvictionCount() {
+		return _evictions;
+	}
+
+	/**
+	 * Returns how many expressions are cached
+	 * @return the number of cached expressions
+	 */
+	public synchronized int size() {
+		return _cache.size();
+	}
+
+	/**
+	 * Returns the total weight of the cached expressions
+	 * @return the total length of the cached expressions' text
+	 */
+	public synchronized long getWeight() {
+		return _weight;
+	}
+
+	/**
+	 * Removes every cached expression. The counters are kept.
+	 */
+	public synchronized void clear() {
+		_cache.clear();
+		_weight = 0;
+	}
+}
@@ -0,0 +1,547 @@
+package main;
+
+import java.lang.reflect.Array;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Evaluates one expression over whole columns of variable values at once, for tables with many rows.
+ * The expression is compiled into a short program of column operations: each sum or product becomes one
+ * instruction that combines its operands a chunk of CHUNK_SIZE rows at a time, with one plain loop over primitive arrays
+ * per operand. Loops like these are what the JIT compiles into SIMD instructions, and a chunk of every register
+ * fits in the CPU's cache. Variable columns are read in place, and registers are reused once their value has been
+ * used, so the memory needed per thread only depends on the shape of the expression, not on the number of rows.
+ * Big tables are split into row ranges that are evaluated in parallel on a ForkJoinPool.
+ * Variables are numbered the same way as in CompiledExpression: in the order they first appear, left to right.
+ */
+public class ColumnarEvaluator {
+	/**
+	 * Number of rows evaluated at a time by each instruction
+	 */
+	static final int CHUNK_SIZE = 1024;
+
+	/**
+	 * Tables with fewer rows than this are evaluated on the calling thread
+	 */
+	private static final int PARALLEL_THRESHOLD = 64 * CHUNK_SIZE;
+
+	/**
+	 * How many pieces each worker thread's share of the rows is split into, as in BatchExpressionParser
+	 */
+	private static final int SPLITS_PER_THREAD = 8;
+
+	final private List<String> _variables;
+	final private Instruction[] _program;
+	final private Operand _result;
+	final private int _registers;
+	final private ForkJoinPool _pool;
+
+	/**
+	 * Compiles an expression to evaluate on the common ForkJoinPool
+	 * @param x the expression to evaluate
+	 */
+	public ColumnarEvaluator(Expression x) {
+		this(x, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Compiles an expression
+	 * @param x the expression to evaluate
+	 * @param pool the pool to evaluate big tables on
+	 */
+	public ColumnarEvaluator(Expression x, ForkJoinPool pool) {
+		_pool = pool;
+		final List<String> variables = new ArrayList<String>();
+		final Map<String, Integer> slots = new HashMap<String, Integer>();
+		final List<Instruction> program = new ArrayList<Instruction>();
+		// post-order from an explicit stack, the same as CompiledExpression.compile, with the operands of
+		// the instructions still to be made on the operands stack
+		final Deque<ParsedExpression> postOrder = ParsedExpression.postOrder((ParsedExpression) x);
+		final ArrayDeque<Operand> operands = new ArrayDeque<Operand>();
+		int inUse = 0; //registers [0, inUse) hold values that haven't been used yet
+		int registers = 0;
+		while(!postOrder.isEmpty()) {
+			final ParsedExpression current = postOrder.pop();
+			switch(current.getKind()) {
+			case INTEGER_LITERAL:
+			case NUMBER_LITERAL:
+				operands.push(Operand.literal(current));
+				break;
+			case VARIABLE:
+				if(!slots.containsKey(current.getName())) {
+					slots.put(current.getName(), variables.size());
+					variables.add(current.getName());
+				}
+				operands.push(new Operand(Operand.COLUMN, slots.get(current.getName()), 0, 0, true));
+				break;
+			case PARENTHESIZED:
+				break; //the value of the inside is already on the stack
+			default:
+				final boolean product = current.getKind() == ExpressionKind.PRODUCT;
+				final Operand[] combined = new Operand[current.getChildren().size()];
+				int inRegisters = 0;
+				for(int i = combined.length-1; i >= 0; i--) {
+					combined[i] = operands.pop();
+					if(combined[i]._kind == Operand.REGISTER) inRegisters++;
+				}
+				if(inRegisters == 0 && allConstant(combined)) {
+					operands.push(Operand.fold(combined, product));
+					break;
+				}
+				// the operands' registers are the top inRegisters in use, and the result goes in the lowest of them
+				inUse -= inRegisters;
+				final int target = inUse++;
+				registers = Math.max(registers, inUse);
+				program.add(new Instruction(product, target, combined));
+				operands.push(new Operand(Operand.REGISTER, target, 0, 0, true));
+			}
+		}
+		_variables = Collections.unmodifiableList(variables);
+		_program = program.toArray(new Instruction[program.size()]);
+		_result = operands.pop();
+		_registers = registers;
+	}
+
+	/**
+	 * Function to check if every operand is a constant
+	 * @param operands the operands to check
+	 * @return true if they are all constants, false otherwise
+	 */
+	private static boolean allConstant(Operand[] operands) {
+		for(int i = 0; i < operands.length; i++) {
+			if(operands[i]._kind != Operand.CONSTANT) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the names of the variables, in column order
+	 * @return an unmodifiable list where the variable at index i is read from columns[i] when evaluating
+	 */
+	public List<String> getVariables() {
+		return _variables;
+	}
+
+	/**
+	 * Evaluates the expression for every row of a table of doubles
+	 * @param columns the values of every variable, one column per variable in the order of getVariables()
+	 * @param out the column to write the value of the expression for each row to, which sets the number of rows
+	 */
+	public void evaluate(double[][] columns, double[] out) {
+		checkColumns(columns, out.length);
+		evaluateRows(new DoubleColumns(columns, out), out.length);
+	}
+
+	/**
+	 * Evaluates the expression for every row of a table of longs. Arithmetic overflows silently, like Java's long arithmetic.
+	 * @param columns the values of every variable, one column per variable in the order of getVariables()
+	 * @param out the column to write the value of the expression for each row to, which sets the number of rows
+	 * @throws ArithmeticException if the expression has a literal that isn't a long
+	 */
+	public void evaluate(long[][] columns, long[] out) {
+		checkColumns(columns, out.length);
+		for(int i = 0; i < _program.length; i++) {
+			_program[i].checkLong();
+		}
+		_result.checkLong();
+		evaluateRows(new LongColumns(columns, out), out.length);
+	}
+
+	/**
+	 * Helper function for evaluate to check that there is a long enough column for every variable
+	 * @param columns the columns, which must be arrays
+	 * @param rows the number of rows
+	 */
+	private void checkColumns(Object[] columns, int rows) {
+		if(columns.length < _variables.size()) throw new IllegalArgumentException("Expected " + _variables.size() + " columns, got " + columns.length);
+		for(int i = 0; i < _variables.size(); i++) {
+			if(Array.getLength(columns[i]) < rows) throw new IllegalArgumentException("Column " + _variables.get(i) + " is shorter than the output");
+		}
+	}
+
+	/**
+	 * Helper function for evaluate to evaluate the rows on this thread or split them over the pool
+	 * @param table the columns to evaluate over
+	 * @param rows the number of rows
+	 */
+	private void evaluateRows(Columns table, int rows) {
+		if(rows < PARALLEL_THRESHOLD) {
+			table.evaluate(0, rows);
+			return;
+		}
+		// ranges are whole chunks, so no chunk is split between two threads
+		final int chunks = (rows + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		final int chunksPerTask = Math.max(1, chunks / (_pool.getParallelism() * SPLITS_PER_THREAD));
+		_pool.invoke(new EvaluateTask(table, 0, chunks, chunksPerTask, rows));
+	}
+
+	/**
+	 * Task that evaluates a range of chunks, splitting itself in half until the range is small enough
+	 */
+	private static class EvaluateTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		final private Columns _table;
+		final private int _start;
+		final private int _end;
+		final private int _chunksPerTask;
+		final private int _rows;
+
+		EvaluateTask(Columns table, int start, int end, int chunksPerTask, int rows) {
+			_table = table;
+			_start = start;
+			_end = end;
+			_chunksPerTask = chunksPerTask;
+			_rows = rows;
+		}
+
+		protected void compute() {
+			if(_end - _start <= _chunksPerTask) {
+				_table.evaluate(_start * CHUNK_SIZE, Math.min(_rows, _end * CHUNK_SIZE));
+				return;
+			}
+			final int middle = (_start + _end) >>> 1;
+			invokeAll(new EvaluateTask(_table, _start, middle, _chunksPerTask, _rows),
+					new EvaluateTask(_table, middle, _end, _chunksPerTask, _rows));
+		}
+	}
+
+	/**
+	 * Operand of an instruction: a variable's column, a register holding an earlier instruction's result, or a constant
+	 */
+	private static final class Operand {
+		static final int COLUMN = 0;
+		static final int REGISTER = 1;
+		static final int CONSTANT = 2;
+
+		final private int _kind;
+		final private int _index;
+		final private double _value;
+		final private long _longValue;
+		final private boolean _fitsLong;
+
+		Operand(int kind, int index, double value, long longValue, boolean fitsLong) {
+			_kind = kind;
+			_index = index;
+			_value = value;
+			_longValue = longValue;
+			_fitsLong = fitsLong;
+		}
+
+		/**
+		 * Makes the constant operand of a literal
+		 * @param x the literal
+		 * @return the operand
+		 */
+		static Operand literal(ParsedExpression x) {
+			if(x.getKind() == ExpressionKind.INTEGER_LITERAL && x.getName().length() <= 18) return new Operand(CONSTANT, 0, x.getValue(), x.getValue(), true); //18 digits always fit in a long
+			return new Operand(CONSTANT, 0, Double.parseDouble(x.getName()), 0, false);
+		}
+
+		/**
+		 * Works out a sum or product of constants ahead of time
+		 * @param operands the constants
+		 * @param product true for a product, false for a sum
+		 * @return the constant operand holding the result
+		 */
+		static Operand fold(Operand[] operands, boolean product) {
+			double value = product ? 1 : 0;
+			long longValue = product ? 1 : 0;
+			boolean fitsLong = true;
+			for(int i = 0; i < operands.length; i++) {
+				value = product ? value * operands[i]._value : value + operands[i]._value;
+				longValue = product ? longValue * operands[i]._longValue : longValue + operands[i]._longValue;
+				fitsLong &= operands[i]._fitsLong;
+			}
+			return new Operand(CONSTANT, 0, value, longValue, fitsLong);
+		}
+
+		/**
+		 * Checks that this operand can be used in long arithmetic
+		 * @throws ArithmeticException if it comes from a literal that isn't a long
+		 */
+		void checkLong() {
+			if(!_fitsLong) throw new ArithmeticException("Literal is not a long");
+		}
+	}
+
+	/**
+	 * A sum or product of operands, worked out into a register
+	 */
+	private static final class Instruction {
+		final private boolean _product;
+		final private int _target;
+		final private Operand _first;
+		final private Operand[] _rest;
+
+		/**
+		 * Makes an instruction. If any operands are in registers, the first of those is in the target register, so it becomes
+		 * the starting value and the others are combined with it in order; otherwise the first operand is the starting value.
+		 * For sums of doubles this can add the operands in a different order from CompiledExpression, which can change
+		 * the last bits of the result.
+		 * @param product true for a product, false for a sum
+		 * @param target the register to put the result in
+		 * @param operands the operands, in order
+		 */
+		Instruction(boolean product, int target, Operand[] operands) {
+			_product = product;
+			_target = target;
+			int first = 0;
+			for(int i = 0; i < operands.length; i++) {
+				if(operands[i]._kind == Operand.REGISTER && operands[i]._index == target) first = i;
+			}
+			_first = operands[first];
+			_rest = new Operand[operands.length-1];
+			for(int i = 0, j = 0; i < operands.length; i++) {
+				if(i != first) _rest[j++] = operands[i];
+			}
+		}
+
+		/**
+		 * Checks that every operand can be used in long arithmetic
+		 * @throws ArithmeticException if one comes from a literal that isn't a long
+		 */
+		void checkLong() {
+			_first.checkLong();
+			for(int i = 0; i < _rest.length; i++) {
+				_rest[i].checkLong();
+			}
+		}
+	}
+
+	/**
+	 * The input and output columns of one evaluation, which can be evaluated a range of rows at a time
+	 */
+	private abstract class Columns {
+		/**
+		 * Evaluates a range of rows, one chunk at a time, with registers of its own
+		 * @param from the first row
+		 * @param to the row after the last
+		 */
+		abstract void evaluate(int from, int to);
+	}
+
+	private final class DoubleColumns extends Columns {
+		final private double[][] _columns;
+		final private double[] _out;
+
+		DoubleColumns(double[][] columns, double[] out) {
+			_columns = columns;
+			_out = out;
+		}
+
+		void evaluate(int from, int to) {
+			final double[][] registers = new double[_registers][CHUNK_SIZE];
+			for(int start = from; start < to; start += CHUNK_SIZE) {
+				final int length = Math.min(CHUNK_SIZE, to - start);
+				for(int i = 0; i < _program.length; i++) {
+					final Instruction instruction = _program[i];
+					final double[] target = registers[instruction._target];
+					if(instruction._first._kind != Operand.REGISTER) load(instruction._first, target, start, length);
+					for(int j = 0; j < instruction._rest.length; j++) {
+						if(instruction._product) multiply(instruction._rest[j], target, start, length, registers);
+						else add(instruction._rest[j], target, start, length, registers);
+					}
+				}
+				switch(_result._kind) {
+				case Operand.COLUMN:
+					System.arraycopy(_columns[_result._index], start, _out, start, length);
+					break;
+				case Operand.REGISTER:
+					System.arraycopy(registers[_result._index], 0, _out, start, length);
+					break;
+				default:
+					Arrays.fill(_out, start, start + length, _result._value);
+				}
+			}
+		}
+
+		/**
+		 * Sets a chunk of a register to a column or constant operand
+		 * @param operand the operand to load
+		 * @param target the register
+		 * @param start the first row of the chunk
+		 * @param length the number of rows in the chunk
+		 */
+		private void load(Operand operand, double[] target, int start, int length) {
+			if(operand._kind == Operand.COLUMN) System.arraycopy(_columns[operand._index], start, target, 0, length);
+			else Arrays.fill(target, 0, length, operand._value);
+		}
+
+		/**
+		 * Adds an operand to a chunk of a register
+		 * @param operand the operand to combine with the register
+		 * @param target the register
+		 * @param start the first row of the chunk
+		 * @param length the number of rows in the chunk
+		 * @param registers this thread's registers
+		 */
+		private void add(Operand operand, double[] target, int start, int length, double[][] registers) {
+			switch(operand._kind) {
+			case Operand.COLUMN:
+				final double[] column = _columns[operand._index];
+				for(int i = 0; i < length; i++) {
+					target[i] += column[start + i];
+				}
+				break;
+			case Operand.REGISTER:
+				final double[] register = registers[operand._index];
+				for(int i = 0; i < length; i++) {
+					target[i] += register[i];
+				}
+				break;
+			default:
+				final double value = operand._value;
+				for(int i = 0; i < length; i++) {
+					target[i] += value;
+				}
+			}
+		}
+
+		/**
+		 * Multiplies a chunk of a register by an operand
+		 * @param operand the operand to combine with the register
+		 * @param target the register
+		 * @param start the first row of the chunk
+		 * @param length the number of rows in the chunk
+		 * @param registers this thread's registers
+		 */
+		private void multiply(Operand operand, double[] target, int start, int length, double[][] registers) {
+			switch(operand._kind) {
+			case Operand.COLUMN:
+				final double[] column = _columns[operand._index];
+				for(int i = 0; i < length; i++) {
+					target[i] *= column[start + i];
+				}
+				break;
+			case Operand.REGISTER:
+				final double[] register = registers[operand._index];
+				for(int i = 0; i < length; i++) {
+					target[i] *= register[i];
+				}
+				break;
+			default:
+				final double value = operand._value;
+				for(int i = 0; i < length; i++) {
+					target[i] *= value;
+				}
+			}
+		}
+	}
+
+	private final class LongColumns extends Columns {
+		final private long[][] _columns;
+		final private long[] _out;
+
+		LongColumns(long[][] columns, long[] out) {
+			_columns = columns;
+			_out = out;
+		}
+
+		void evaluate(int from, int to) {
+			final long[][] registers = new long[_registers][CHUNK_SIZE];
+			for(int start = from; start < to; start += CHUNK_SIZE) {
+				final int length = Math.min(CHUNK_SIZE, to - start);
+				for(int i = 0; i < _program.length; i++) {
+					final Instruction instruction = _program[i];
+					final long[] target = registers[instruction._target];
+					if(instruction._first._kind != Operand.REGISTER) load(instruction._first, target, start, length);
+					for(int j = 0; j < instruction._rest.length; j++) {
+						if(instruction._product) multiply(instruction._rest[j], target, start, length, registers);
+						else add(instruction._rest[j], target, start, length, registers);
+					}
+				}
+				switch(_result._kind) {
+				case Operand.COLUMN:
+					System.arraycopy(_columns[_result._index], start, _out, start, length);
+					break;
+				case Operand.REGISTER:
+					System.arraycopy(registers[_result._index], 0, _out, start, length);
+					break;
+				default:
+					Arrays.fill(_out, start, start + length, _result._longValue);
+				}
+			}
+		}
+
+		/**
+		 * Sets a chunk of a register to a column or constant operand
+		 * @param operand the operand to load
+		 * @param target the register
+		 * @param start the first row of the chunk
+		 * @param length the number of rows in the chunk
+		 */
+		private void load(Operand operand, long[] target, int start, int length) {
+			if(operand._kind == Operand.COLUMN) System.arraycopy(_columns[operand._index], start, target, 0, length);
+			else Arrays.fill(target, 0, length, operand._longValue);
+		}
+
+		/**
+		 * Adds an operand to a chunk of a register
+		 * @param operand the operand to combine with the register
+		 * @param target the register
+		 * @param start the first row of the chunk
+		 * @param length the number of rows in the chunk
+		 * @param registers this thread's registers
+		 */
+		private void add(Operand operand, long[] target, int start, int length, long[][] registers) {
+			switch(operand._kind) {
+			case Operand.COLUMN:
+				final long[] column = _columns[operand._index];
+				for(int i = 0; i < length; i++) {
+					target[i] += column[start + i];
+				}
+				break;
+			case Operand.REGISTER:
+				final long[] register = registers[operand._index];
+				for(int i = 0; i < length; i++) {
+					target[i] += register[i];
+				}
+				break;
+			default:
+				final long value = operand._longValue;
+				for(int i = 0; i < length; i++) {
+					target[i] += value;
+				}
+			}
+		}
+
+		/**
+		 * Multiplies a chunk of a register by an operand
+		 * @param operand the operand to combine with the register
+		 * @param target the register
+		 * @param start the first row of the chunk
+		 * @param length the number of rows in the chunk
+		 * @param registers this thread's registers
+		 */
+		private void multiply(Operand operand, long[] target, int start, int length, long[][] registers) {
+			switch(operand._kind) {
+			case Operand.COLUMN:
+				final long[] column = _columns[operand._index];
+				for(int i = 0; i < length; i++) {
+					target[i] *= column[start + i];
+				}
+				break;
+			case Operand.REGISTER:
+				final long[] register = registers[operand._index];
+				for(int i = 0; i < length; i++) {
+					target[i] *= register[i];
+				}
+				break;
+			default:
+				final long value = operand._longValue;
+				for(int i = 0; i < length; i++) {
+					target[i] *= value;
+				}
+			}
+		}
+	}
+}
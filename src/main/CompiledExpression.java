@@ -0,0 +1,240 @@
+package main;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An expression compiled for evaluating many times with different values for its variables. Compiling turns the
+ * tree into a tree of small evaluator objects, once: variables are given slots in an array of values, parentheses
+ * disappear, and sums and products whose operands are all literals are worked out ahead of time. Evaluating then just
+ * calls down the evaluator tree, without looking at names, kinds or children lists.
+ * Compiled expressions never change, so one can be evaluated by any number of threads at once.
+ */
+public class CompiledExpression {
+	final private Evaluator _root;
+	final private List<String> _variables;
+	final private Map<String, Integer> _slots;
+
+	private CompiledExpression(Evaluator root, List<String> variables, Map<String, Integer> slots) {
+		_root = root;
+		_variables = variables;
+		_slots = slots;
+	}
+
+	/**
+	 * Compiles an expression. Variables get slots in the order they first appear in the expression, left to right.
+	 * @param x the expression to compile
+	 * @return the compiled expression
+	 */
+	public static CompiledExpression compile(Expression x) {
+		final List<String> variables = new ArrayList<String>();
+		final Map<String, Integer> slots = new HashMap<String, Integer>();
+		// evaluators are made in post-order from an explicit stack, so every node's operands are already made and on top of the compiled stack
+		final Deque<ParsedExpression> postOrder = ParsedExpression.postOrder((ParsedExpression) x);
+		final ArrayDeque<Evaluator> compiled = new ArrayDeque<Evaluator>();
+		while(!postOrder.isEmpty()) {
+			final ParsedExpression current = postOrder.pop();
+			if(current.getKind() == ExpressionKind.VARIABLE && !slots.containsKey(current.getName())) {
+				slots.put(current.getName(), variables.size()); //post-order meets the variables left to right, so slots follow first appearance
+				variables.add(current.getName());
+			}
+			final Evaluator[] operands = new Evaluator[current.getChildren().size()];
+			for(int i = operands.length-1; i >= 0; i--) {
+				operands[i] = compiled.pop();
+			}
+			compiled.push(compileNode(current, operands, slots));
+		}
+		return new CompiledExpression(compiled.pop(), Collections.unmodifiableList(variables), slots);
+	}
+
+	/**
+	 * Helper function for compile to make the evaluator of a single node
+	 * @param x the node to compile
+	 * @param operands the evaluators of x's children, in order
+	 * @param slots the slot of every variable
+	 * @return the evaluator for x
+	 */
+	private static Evaluator compileNode(ParsedExpression x, Evaluator[] operands, Map<String, Integer> slots) {
+		switch(x.getKind()) {
+		case INTEGER_LITERAL:
+			return new Constant(x.getName().length() <= 18 ? x.getValue() : Double.parseDouble(x.getName())); //18 digits always fit in a long
+		case NUMBER_LITERAL:
+			return new Constant(Double.parseDouble(x.getName()));
+		case VARIABLE:
+			return new Variable(slots.get(x.getName()));
+		case PARENTHESIZED:
+			return operands[0]; //parentheses only matter for the shape of the tree
+		case SUM:
+			if(allConstant(operands)) return new Constant(new Sum(operands).evaluate(null));
+			return operands.length == 2 ? new Sum2(operands[0], operands[1]) : new Sum(operands);
+		case PRODUCT:
+			if(allConstant(operands)) return new Constant(new Product(operands).evaluate(null));
+			return operands.length == 2 ? new Product2(operands[0], operands[1]) : new Product(operands);
+		default:
+			throw new IllegalArgumentException("Cannot compile " + x.getName());
+		}
+	}
+
+	/**
+	 * Function to check if every evaluator in an array is a constant
+	 * @param operands the evaluators to check
+	 * @return true if they are all constants, false otherwise
+	 */
+	private static boolean allConstant(Evaluator[] operands) {
+		for(int i = 0; i < operands.length; i++) {
+			if(!(operands[i] instanceof Constant)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the names of the variables, in slot order
+	 * @return an unmodifiable list where the variable at index i is read from values[i] when evaluating
+	 */
+	public List<String> getVariables() {
+		return _variables;
+	}
+
+	/**
+	 * Returns the slot of a variable
+	 * @param name the name of the variable
+	 * @return the index of the variable's value in the values passed to evaluate, -1 if the expression doesn't use it
+	 */
+	public int getSlot(String name) {
+		final Integer slot = _slots.get(name);
+		return slot == null ? -1 : slot;
+	}
+
+	/**
+	 * Evaluates the expression
+	 * @param values the value of every variable, indexed by slot
+	 * @return the value of the expression
+	 */
+	public double evaluate(double[] values) {
+		return _root.evaluate(values);
+	}
+
+	/**
+	 * Evaluates the expression with the values of the variables given by name. This is slower than evaluate(double[])
+	 * since it looks every variable up, so it is meant for one-off evaluations.
+	 * @param values the value of every variable the expression uses
+	 * @return the value of the expression
+	 * @throws IllegalArgumentException if a variable the expression uses has no value
+	 */
+	public double evaluate(Map<String, ? extends Number> values) {
+		final double[] slots = new double[_variables.size()];
+		for(int i = 0; i < slots.length; i++) {
+			final Number value = values.get(_variables.get(i));
+			if(value == null) throw new IllegalArgumentException("No value for variable " + _variables.get(i));
+			slots[i] = value.doubleValue();
+		}
+		return evaluate(slots);
+	}
+
+	/**
+	 * One node of a compiled expression
+	 */
+	abstract static class Evaluator {
+		/**
+		 * Works out the value of this node
+		 * @param values the value of every variable, indexed by slot
+		 * @return the value of the node
+		 */
+		abstract double evaluate(double[] values);
+	}
+
+	private static final class Constant extends Evaluator {
+		final private double _value;
+
+		Constant(double value) {
+			_value = value;
+		}
+
+		double evaluate(double[] values) {
+			return _value;
+		}
+	}
+
+	private static final class Variable extends Evaluator {
+		final private int _slot;
+
+		Variable(int slot) {
+			_slot = slot;
+		}
+
+		double evaluate(double[] values) {
+			return values[_slot];
+		}
+	}
+
+	/**
+	 * Sum of exactly two operands, by far the most common, without a loop
+	 */
+	private static final class Sum2 extends Evaluator {
+		final private Evaluator _left;
+		final private Evaluator _right;
+
+		Sum2(Evaluator left, Evaluator right) {
+			_left = left;
+			_right = right;
+		}
+
+		double evaluate(double[] values) {
+			return _left.evaluate(values) + _right.evaluate(values);
+		}
+	}
+
+	private static final class Sum extends Evaluator {
+		final private Evaluator[] _operands;
+
+		Sum(Evaluator[] operands) {
+			_operands = operands;
+		}
+
+		double evaluate(double[] values) {
+			double sum = 0;
+			for(int i = 0; i < _operands.length; i++) {
+				sum += _operands[i].evaluate(values);
+			}
+			return sum;
+		}
+	}
+
+	/**
+	 * Product of exactly two operands, without a loop
+	 */
+	private static final class Product2 extends Evaluator {
+		final private Evaluator _left;
+		final private Evaluator _right;
+
+		Product2(Evaluator left, Evaluator right) {
+			_left = left;
+			_right = right;
+		}
+
+		double evaluate(double[] values) {
+			return _left.evaluate(values) * _right.evaluate(values);
+		}
+	}
+
+	private static final class Product extends Evaluator {
+		final private Evaluator[] _operands;
+
+		Product(Evaluator[] operands) {
+			_operands = operands;
+		}
+
+		double evaluate(double[] values) {
+			double product = 1;
+			for(int i = 0; i < _operands.length; i++) {
+				product *= _operands[i].evaluate(values);
+			}
+			return product;
+		}
+	}
+}
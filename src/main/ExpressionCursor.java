@@ -0,0 +1,177 @@
+package main;
+
+import java.util.List;
+
+/**
+ * Cursor that moves around an expression tree using the parent pointers the expressions already have, instead of
+ * searching down from the root. Moving to a parent, child or sibling is O(1). Following an index-path is O(depth), and so
+ * is working out the index-path of an expression: every expression remembers its index among its siblings (see
+ * ParsedExpression.indexInParent), and only has to search its siblings if their list was changed directly instead of
+ * through ParsedExpression. The cursor remembers the index of the expression it is on, so moving between siblings never
+ * searches.
+ */
+public class ExpressionCursor {
+	/**
+	 * Index of the current expression among its siblings when it hasn't been looked up yet
+	 */
+	private static final int UNKNOWN = -1;
+
+	private ParsedExpression _current;
+	private int _index;
+
+	/**
+	 * Creates a cursor on an expression
+	 * @param x the expression to start on
+	 */
+	public ExpressionCursor(ParsedExpression x) {
+		_current = x;
+		_index = UNKNOWN;
+	}
+
+	/**
+	 * Creates a cursor on the expression at the end of an index-path
+	 * @param root the expression the path starts from
+	 * @param path the indices to follow, where each index picks a child of the previous expression
+	 * @return a cursor on the expression at the end of the path
+	 */
+	public static ExpressionCursor at(ParsedExpression root, int[] path) {
+		final ExpressionCursor cursor = new ExpressionCursor(root);
+		for(int i = 0; i < path.length; i++) {
+			cursor.moveToChild(path[i]);
+		}
+		return cursor;
+	}
+
+	/**
+	 * Returns the expression the cursor is on
+	 * @return the current expression
+	 */
+	public ParsedExpression getExpression() {
+		return _current;
+	}
+
+	/**
+	 * Returns the index of the current expression among its parent's children
+	 * @return the index of the current expression, -1 if it has no parent
+	 */
+	public int getIndex() {
+		if(_index == UNKNOWN && _current.hasParent()) _index = _current.indexInParent();
+		return _index;
+	}
+
+	/**
+	 * Returns how far the current expression is below the top of its tree
+	 * @return the number of ancestors of the current expression
+	 */
+	public int getDepth() {
+		int depth = 0;
+		for(ParsedExpression x = _current; x.hasParent(); x = (ParsedExpression) x.getParent()) {
+			depth++;
+		}
+		return depth;
+	}
+
+	/**
+	 * Works out the index-path from the top of the tree to the current expression, in O(depth) (see the class comment)
+	 * @return the indices to follow from the top of the tree, where each index picks a child of the previous expression
+	 */
+	public int[] getIndexPath() {
+		final int[] path = new int[getDepth()];
+		ParsedExpression x = _current;
+		for(int i = path.length-1; i >= 0; i--) {
+			path[i] = i == path.length-1 ? getIndex() : x.indexInParent();
+			x = (ParsedExpression) x.getParent();
+		}
+		return path;
+	}
+
+	/**
+	 * Moves to the parent of the current expression
+	 * @return true if the cursor moved, false if the current expression has no parent
+	 */
+	public boolean moveToParent() {
+		if(!_current.hasParent()) return false;
+		_current = (ParsedExpression) _current.getParent();
+		_index = UNKNOWN;
+		return true;
+	}
+
+	/**
+	 * Moves to the top of the tree
+	 */
+	public void moveToRoot() {
+		while(moveToParent());
+	}
+
+	/**
+	 * Moves to a child of the current expression
+	 * @param index the index of the child
+	 */
+	public void moveToChild(int index) {
+		_current = (ParsedExpression) _current.getChildren().get(index);
+		_index = index;
+	}
+
+	/**
+	 * Moves to the next child of the current expression's parent
+	 * @return true if the cursor moved, false if there is no next sibling
+	 */
+	public boolean moveToNextSibling() {
+		return moveToSibling(1);
+	}
+
+	/**
+	 * Moves to the previous child of the current expression's parent
+	 * @return true if the cursor moved, false if there is no previous sibling
+	 */
+	public boolean moveToPreviousSibling() {
+		return moveToSibling(-1);
+	}
+
+	/**
+	 * Helper function to move between siblings
+	 * @param offset how far to move among the siblings
+	 * @return true if the cursor moved, false if there is no sibling there
+	 */
+	private boolean moveToSibling(int offset) {
+		if(!_current.hasParent()) return false;
+		final List<Expression> siblings = ((ParsedExpression) _current.getParent()).getChildren();
+		final int index = getIndex() + offset;
+		if(index < 0 || index >= siblings.size()) return false;
+		_current = (ParsedExpression) siblings.get(index);
+		_index = index;
+		return true;
+	}
+
+	/**
+	 * Reorders the current expression's children to match a reordered copy of it, keeping the same expressions
+	 * (see ParsedExpression.convertTo). Nothing above the current expression is visited.
+	 * @param reordered a deep copy of the current expression with its children in the new order
+	 */
+	public void reorder(ParsedExpression reordered) {
+		_current.convertTo(reordered);
+	}
+
+	/**
+	 * Moves one of the current expression's children to another position (see ParsedExpression.moveChild), without
+	 * copying anything
+	 * @param from the current index of the child
+	 * @param to the index the child should end up at
+	 */
+	public void moveChild(int from, int to) {
+		_current.moveChild(from, to);
+	}
+
+	/**
+	 * Splices a subtree into the tree in place of the current expression, and moves the cursor onto it.
+	 * The replaced expression is detached from the tree.
+	 * @param replacement the subtree to put in place of the current expression
+	 * @return the expression that was replaced
+	 */
+	public ParsedExpression replace(ParsedExpression replacement) {
+		final ParsedExpression replaced = _current;
+		if(replaced.hasParent()) ((ParsedExpression) replaced.getParent()).replaceSubexpression(getIndex(), replacement);
+		_current = replacement;
+		return replaced;
+	}
+}
@@ -1,10 +1,21 @@
 package main;
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javafx.geometry.Bounds;
 import javafx.geometry.Point2D;
 import javafx.scene.control.Label;
+import javafx.concurrent.Task;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.event.EventType;
@@ -15,6 +26,7 @@ import javafx.scene.layout.HBox;
 import javafx.scene.Node;
 import javafx.scene.Parent;
 import javafx.scene.control.Button;
+import javafx.scene.control.ProgressIndicator;
 import javafx.scene.control.TextField;
 import javafx.scene.input.MouseButton;
 import javafx.scene.input.MouseEvent;
@@ -25,6 +37,11 @@ import javafx.scene.shape.Rectangle;
 import javafx.stage.Stage;
 
 public class ExpressionEditor extends Application {
+	/**
+	 * Log for the expression trees, at FINE so they are only written out when someone asks for them
+	 */
+	private static final Logger LOGGER = Logger.getLogger(ExpressionEditor.class.getName());
+
 	public static void main (String[] args) {
 		launch(args);
 	}
@@ -43,57 +60,105 @@ public class ExpressionEditor extends Application {
 		private double _startSceneX;
 		private double _startSceneY;
 		
-		private Map<Integer, Expression> otherPossibleConfigurations;
-		private Map<Integer, Double> configPositions;
+		private double[] configPositions;
+		private double configOriginX;
+		
+		private ExpressionHitIndex hitIndex;
 		
 		private ParsedExpression originalExpression;
 		
+		//drags are coalesced: events only store the latest pointer position, and the pulse timer applies it once per frame
+		private double _dragSceneX;
+		private double _dragSceneY;
+		private boolean _dragPending;
+		final private AnimationTimer _dragPulse = new AnimationTimer() {
+			public void handle (long now) {
+				applyDrag();
+			}
+		};
+		
 		int oldIndex;
-		private Expression nearest;
 		MouseEventHandler (Pane pane_, CompoundExpression rootExpression_) {
 			pane = pane_;
-			root = rootExpression_.getNode();
+			root = ExpressionView.of(rootExpression_).getNode();
 			node = (ParsedExpression)rootExpression_;
-			otherPossibleConfigurations = new HashMap<Integer, Expression>();
-			configPositions = new HashMap<Integer, Double>();
 			originalExpression = (ParsedExpression) rootExpression_;
+			//the hit index is in scene coordinates, so it is thrown away if the whole expression moves in the scene or changes size.
+			//focusing only recolors a border that is always there, so it keeps it; reordering throws it away in handleDragging
+			root.localToSceneTransformProperty().addListener((observable, oldTransform, newTransform) -> hitIndex = null);
+			root.layoutBoundsProperty().addListener((observable, oldBounds, newBounds) -> hitIndex = null);
 		}
 
 		public void handle (MouseEvent event) {
+			if (event.getEventType() == MouseEvent.MOUSE_DRAGGED) {
+				//if we drag and node is NOT the original expression, remember where to; the next pulse does the work
+				if(!node.equals(originalExpression)) queueDrag(event.getSceneX(), event.getSceneY());
+				return;
+			}
+			final ExpressionMetrics.Timer timer = ExpressionMetrics.start(event.getEventType() == MouseEvent.MOUSE_PRESSED
+					? ExpressionMetrics.Operation.PRESS : ExpressionMetrics.Operation.RELEASE);
+			handlePhase(event);
+			timer.stop(node); //the node that was focused or dropped by the end of the phase
+		}
+
+		/**
+		 * Helper function for handle to remember the latest drag position, and make sure a pulse will apply it.
+		 * However many drag events arrive between two frames, only the last one is acted on.
+		 * @param sceneX the x position of the mouse in the scene
+		 * @param sceneY the y position of the mouse in the scene
+		 */
+		private void queueDrag(double sceneX, double sceneY) {
+			_dragSceneX = sceneX;
+			_dragSceneY = sceneY;
+			if(!_dragPending) {
+				_dragPending = true;
+				_dragPulse.start();
+			}
+		}
+
+		/**
+		 * Moves the deep copy to the latest drag position and reorders the expression for it, at most once per pulse.
+		 * This is where the DRAG phase is measured, so the metrics count frames rather than raw mouse events.
+		 */
+		private void applyDrag() {
+			_dragPulse.stop(); //started again by the next drag, so no pulses are spent while the mouse is still
+			if(!_dragPending) return;
+			_dragPending = false;
+			final ExpressionMetrics.Timer timer = ExpressionMetrics.start(ExpressionMetrics.Operation.DRAG);
+			//move the deepcopy
+			deepCopyNode.setTranslateX(_dragSceneX-_startSceneX);
+			deepCopyNode.setTranslateY(_dragSceneY-_startSceneY);
+			//if we don't have positions for all other configurations, we work them out from the current layout
+			if(configPositions == null) {
+				configPositions = ExpressionView.of(node).getConfigurationPositions();
+				configOriginX = ExpressionView.of(node.getParent()).getNode().localToScene(0, 0).getX(); //the parent doesn't move while its children are reordered
+			}
+			handleDragging(_dragSceneX);
+			timer.stop(node);
+		}
+
+		/**
+		 * Helper function for handle that does the work of a press or release
+		 * @param event the mouse event
+		 */
+		private void handlePhase (MouseEvent event) {
 			if (event.getEventType() == MouseEvent.MOUSE_PRESSED) {
 				_startSceneX = event.getSceneX();
 				_startSceneY = event.getSceneY();
-				final List<Expression> children = node.getChildren();
-				final Point2D mousePos = root.sceneToLocal(new Point2D(_startSceneX, _startSceneY));
-				if(children.size() == 0) { //if no children and mouse pressed, reset focus
-					node.setFocused(false);
-					root = originalExpression.getNode();
+				if(node.getChildren().size() == 0) { //if no children and mouse pressed, reset focus
+					ExpressionView.of(node).setFocused(false);
+					root = ExpressionView.of(originalExpression).getNode();
 					node = originalExpression; 
 				}
-				findFocus(children, mousePos);
-			} 
-			else if (event.getEventType() == MouseEvent.MOUSE_DRAGGED && !node.equals(originalExpression)) { //if we drag and node is NOT the original expression
-				//move the deepcopy
-				deepCopyNode.setTranslateX(event.getSceneX()-_startSceneX);
-				deepCopyNode.setTranslateY(event.getSceneY()-_startSceneY);
-				//if we don't have positions for all other configurations, we make that
-				if(configPositions.isEmpty()) {
-					for(int i = 0; i < ((ParsedExpression)node.getParent()).getChildren().size(); i++) {
-						final Bounds theBounds = ((ParsedExpression)otherPossibleConfigurations.get(i)).getChildren().get(i).getNode().getBoundsInParent();
-						configPositions.put(i, theBounds.getWidth()/2+theBounds.getMinX());
-					}
-				}
-				handleDragging(event);
+				else findFocus(_startSceneX, _startSceneY);
 			} 
 			else if (event.getEventType() == MouseEvent.MOUSE_RELEASED) {
+				if(_dragPending) applyDrag(); //drop where the mouse was let go, even if no pulse has come since the last drag
 				pane.getChildren().remove(deepCopyNode);
-				node.setExpressionColor(Paint.valueOf("black"));
-				root = node.getNode();
-				for(int i = 0; i < otherPossibleConfigurations.size(); i++) {
-					pane.getChildren().remove(otherPossibleConfigurations.get(i).getNode());
-				}
-				configPositions.clear();
-				System.out.println(originalExpression.convertToString(0));
+				ExpressionView.of(node).setExpressionColor(Paint.valueOf("black"));
+				root = ExpressionView.of(node).getNode();
+				configPositions = null;
+				LOGGER.fine(() -> originalExpression.convertToString(0)); //only written out if FINE is on
 			}
 		}
 		
@@ -103,136 +168,61 @@ public class ExpressionEditor extends Application {
 		 * @return the index of the nearest other possible configuration
 		 */
 		private int findNearestX(double mouseX) {
-			int nearest = 0;
-			for(int i = 0; i < configPositions.size(); i++) {
-				if(Math.abs(mouseX-configPositions.get(i)) < Math.abs(mouseX-configPositions.get(nearest))) {
-					nearest = i;
-				}
-				otherPossibleConfigurations.get(i).getNode().setLayoutY(5000);
-			}
-			return nearest;
+			return ExpressionHitIndex.nearest(configPositions, mouseX); //positions go left to right, so this is a binary search
 		}
 		
 		/**
-		 * An implementation of a tree-search using depth-first search. It finds the index-path to follow to find the target
-		 * @param toSearch the expression to search
-		 * @param target what we want to find
-		 * @param path the current path
-		 * @return the path if we found it, null otherwise
+		 * Helper function to reduce clutter in Handle, helps to find the focus
+		 * @param sceneX the x position of the mouse in the scene
+		 * @param sceneY the y position of the mouse in the scene
 		 */
-		private List<Integer> find(ParsedExpression toSearch, ParsedExpression target, List<Integer> path) {
-			if(toSearch.equals(target)) {
-				return path;
+		private void findFocus(double sceneX, double sceneY) {
+			if(hitIndex == null) {
+				((Parent) ExpressionView.of(originalExpression).getNode()).layout(); //make sure the bounds are up to date before indexing them
+				hitIndex = new ExpressionHitIndex(originalExpression);
 			}
-			for(int i = 0; i < toSearch.getChildren().size(); i++) {
-				List<Integer> newPath = listCopy(path);
-				newPath.add(i);
-				List<Integer> possiblePath = find((ParsedExpression)toSearch.getChildren().get(i), target, newPath);
-				if(possiblePath != null) {
-					return possiblePath;
-				}
+			final ParsedExpression child = hitIndex.childAt(node, sceneX, sceneY);
+			if(child != null) {
+				//focus section, reset current focus style and refocus on the child.
+				ExpressionView.of(node).setFocused(false);
+				root = ExpressionView.of(child).getNode();
+				node = child;
+				ExpressionView.of(node).setFocused(true);
+				ExpressionView.of(node).setExpressionColor(Paint.valueOf("gray"));
+				
+				//deep copy section, make a deepcopy, set its position, and show it
+				deepCopy = (ParsedExpression) node.deepCopy();
+				deepCopyNode = ExpressionView.of(deepCopy).getNode();
+				deepCopyNode.setLayoutX(root.localToScene(0,0).getX());
+				deepCopyNode.setLayoutY(root.localToScene(0,0).getY()-25);
+				pane.getChildren().add(deepCopyNode);
+				
+				//the other possible configurations are only made when the drag reaches them, just remember where we start
+				oldIndex = ((ParsedExpression)node.getParent()).getChildren().indexOf(node);
+				configPositions = null;
 			}
-			return null;
-		}
-		
-		/**
-		 * A function that will go down a given index-path list (gotten from the find function) and will return the parent of the expression we wanted to find
-		 * @param target the thing we are going down on
-		 * @param path the path we are going to follow
-		 * @return the parent of what we are searching for, such that what we are searching for is in the children
-		 */
-		private ParsedExpression goDownList(ParsedExpression target, List<Integer> path) {
-			if(path.isEmpty()) return (ParsedExpression) target.getParent();
-			List<Integer> newPath = listCopy(path);
-			newPath.remove(0);
-			return (goDownList((ParsedExpression) target.getChildren().get(path.get(0)), newPath));
-		}
-		
-		/**
-		 * A function to copy a list of integers into a new list of integers, keeping the same object pointers within but with a new list pointer
-		 * @param toCopy the list to copy
-		 * @return a new list containing the same integers in the same order but with a new list pointer.
-		 */
-		private List<Integer> listCopy(List<Integer> toCopy) {
-			List<Integer> ret = new ArrayList<Integer>();
-			for(int i = 0; i < toCopy.size(); i++) {
-				ret.add(toCopy.get(i));
+			else {
+				ExpressionView.of(node).setFocused(false);
+				root = ExpressionView.of(originalExpression).getNode();
+				node = originalExpression;
+				//if we don't find it, root is now the originalExpression
 			}
-			return ret;
 		}
 		
 		/**
-		 * Helper function to reduce clutter in Handle, helps to find the focus
-		 * @param children the children of the current focus
-		 * @param mousePos the position of the mouse
+		 * Helper function to reduce clutter in applyDrag, handles changing the expression internally.
+		 * @param sceneX the latest x position of the mouse in the scene
 		 */
-		private void findFocus(List<Expression> children, Point2D mousePos) {
-			for(int i = 0; i < children.size(); i++) {
-				if(children.get(i).getNode().getBoundsInParent().contains(mousePos)) {
-					//focus section, reset current focus style and refocus on the child.
-					node.setFocused(false);
-					root = children.get(i).getNode();
-					node = (ParsedExpression) children.get(i);
-					node.setFocused(true);
-					node.setExpressionColor(Paint.valueOf("gray"));
-					
-					//deep copy section, make a deepcopy, set its position, and show it
-					deepCopy = (ParsedExpression) node.deepCopy();
-					deepCopyNode = deepCopy.getNode();
-					deepCopyNode.setLayoutX(root.localToScene(0,0).getX());
-					deepCopyNode.setLayoutY(root.localToScene(0,0).getY()-25);
-					pane.getChildren().add(deepCopyNode);
-					
-					//make the other possible configurations
-					otherPossibleConfigurations = node.getOtherPossibleConfigurations();
-					for(int a = 0; a < ((ParsedExpression)node.getParent()).getChildren().size(); a++) {
-						otherPossibleConfigurations.get(a).getNode().setLayoutY(5000);
-						otherPossibleConfigurations.get(a).getNode().setLayoutX(WINDOW_WIDTH/4);
-						//add the other configs very far offscreen but in the correct x position such that we know the x position of the focuses.
-						pane.getChildren().add(otherPossibleConfigurations.get(a).getNode());
-						//this was necessary, attempting to do it in ParsedExpression lead to 3 hours of work with nothing accomplished
-						//the positions did not seem to get initialized for rootExpression until a mouse click so this was the best comprimise
-						//could've attempted to emulate this inside of parsedExpression but that is just so much more work.
-					}
-					
-					break;
-				}
-				else if (i == children.size()-1) {
-					node.setFocused(false);
-					root = originalExpression.getNode();
-					node = originalExpression;
-					//if we don't find it, root is now the originalExpression
-				}
-			}
-		}
-		
-		/**
-		 * Helper function to reduce clutter in handle, handles changing the expression internally.
-		 * @param event the mouseevent that caused this
-		 */
-		private void handleDragging(MouseEvent event) {
+		private void handleDragging(double sceneX) {
 			//we find the x position we're closed to
-			final int index = findNearestX(node.getParent().getNode().sceneToLocal(event.getSceneX(), event.getSceneY()).getX());
-			nearest = otherPossibleConfigurations.get(index);
+			final int index = findNearestX(sceneX - configOriginX);
 			if(index != oldIndex) {
-				pane.getChildren().remove(originalExpression.getNode());
-				if(((ParsedExpression) node.getParent()).hasParent()) { //if the parent has a parent (i.e the parent is not the original expression
-					final List<Integer> path = find(originalExpression, (ParsedExpression) node, new ArrayList<Integer>()); 
-					final ParsedExpression temp = goDownList(originalExpression, path);
-					((ParsedExpression)temp).convertTo((ParsedExpression) nearest);
-					//we traverse down the tree until we find the node we are selecting
-					//we then find the index of the other config we want to use
-					//we then convert the current node to that new configuration and reform the originalexpression node.
-					originalExpression.convertTo(ParsedExpression.getOriginal(temp));
-				}
-				else {
-					originalExpression.convertTo((ParsedExpression) nearest);
-					//otherwise nearest is just what we want so we do that and reform the node
-				}
-				originalExpression.getNode().setLayoutX(WINDOW_WIDTH/4); //reset the layout
-				originalExpression.getNode().setLayoutY(WINDOW_HEIGHT/2);
-				node.setExpressionColor(Paint.valueOf("gray"));
-				pane.getChildren().add(originalExpression.getNode());
+				//the children are moved in place, so nothing is copied, and the parent is reached through the parent pointers instead of searching from the root
+				final ExpressionCursor parent = new ExpressionCursor(node);
+				parent.moveToParent();
+				parent.moveChild(oldIndex, index);
+				hitIndex = null; //the children moved, so the index is rebuilt on the next press
+				//the scene graph is updated in place, so the original expression's node stays where it is in the pane
 			}
 			oldIndex = index;	
 		}
@@ -251,51 +241,102 @@ public class ExpressionEditor extends Application {
 	/**
 	 * Parser used for parsing expressions.
 	 */
-	private final ExpressionParser expressionParser = new SimpleExpressionParser();
+	private final LinearExpressionParser expressionParser = new LinearExpressionParser();
+
+	/**
+	 * Runs parsing and view building off the JavaFX application thread, one parse at a time
+	 */
+	private final ExecutorService parseExecutor = Executors.newSingleThreadExecutor(runnable -> {
+		final Thread thread = new Thread(runnable, "expression-parser");
+		thread.setDaemon(true); //never keeps the application alive once the window is closed
+		return thread;
+	});
+
+	/**
+	 * The latest parse, cancelled if the text changes before it finishes
+	 */
+	private ParseTask currentParse;
+
+	/**
+	 * Background task that parses the text and builds the view of the tree, so the application thread only has to attach it.
+	 * Cancelling interrupts the worker. Parsing stops the next time the parser reads a buffer of text, and building the
+	 * view stops before the next node's view is made.
+	 */
+	private static class ParseTask extends Task<Expression> {
+		final private LinearExpressionParser parser;
+		final private String text;
+
+		ParseTask (LinearExpressionParser parser_, String text_) {
+			parser = parser_;
+			text = text_;
+		}
+
+		protected Expression call () throws IOException, ExpressionParseException {
+			final Expression expression = parser.parse(new InterruptibleReader(new StringReader(text)), false);
+			//the nodes can be made on any thread as long as they aren't in a scene yet; a cancel is checked before each one
+			if(ExpressionView.of(expression, this::isCancelled) == null) return null;
+			return expression;
+		}
+	}
+
+	/**
+	 * Reader that gives up as soon as the thread reading it is interrupted, so a cancelled parse doesn't run to the end
+	 */
+	private static class InterruptibleReader extends FilterReader {
+		InterruptibleReader (Reader in) {
+			super(in);
+		}
+
+		public int read (char[] buffer, int offset, int length) throws IOException {
+			if(Thread.currentThread().isInterrupted()) throw new InterruptedIOException("Parse cancelled");
+			return super.read(buffer, offset, length);
+		}
+	}
 
 	@Override
 	public void start (Stage primaryStage) {
 		primaryStage.setTitle("Expression Editor");
+		ExpressionMetrics.registerMBeans(); //so the metrics can be turned on and read from jconsole
 
 		// Add the textbox and Parser button
 		final Pane queryPane = new HBox();
 		final TextField textField = new TextField(EXAMPLE_EXPRESSION);
 		final Button button = new Button("Parse");
+		final ProgressIndicator busyIndicator = new ProgressIndicator(); //spins while a parse is running
+		busyIndicator.setPrefSize(24, 24);
+		busyIndicator.setVisible(false);
 		queryPane.getChildren().add(textField);
 
 		final Pane expressionPane = new Pane();
 		// Add the callback to handle when the Parse button is pressed	
 		button.setOnMouseClicked(new EventHandler<MouseEvent>() {
 			public void handle (MouseEvent e) {
-				// Try to parse the expression
-				try {
-					// Success! Add the expression's Node to the expressionPane
-					final Expression expression = expressionParser.parse(textField.getText(), true);
-					System.out.println(expression.convertToString(0));
-					expressionPane.getChildren().clear();
-					expressionPane.getChildren().add(expression.getNode());
-					expression.getNode().setLayoutX(WINDOW_WIDTH/4);
-					expression.getNode().setLayoutY(WINDOW_HEIGHT/2);
-					expressionPane.setStyle("-fx-font: 24 \"Comic Sans MS\";"); //set font to best font
-
-					// If the parsed expression is a CompoundExpression, then register some callbacks
-					if (!((ParsedExpression)expression).isLiteral()) {
-						((Pane) expression.getNode()).setBorder(Expression.NO_BORDER);
-						final MouseEventHandler eventHandler = new MouseEventHandler(expressionPane, (CompoundExpression) expression);
-						expressionPane.setOnMousePressed(eventHandler);
-						expressionPane.setOnMouseDragged(eventHandler);
-						expressionPane.setOnMouseReleased(eventHandler);
+				// Try to parse the expression in the background, so the window keeps responding however big it is
+				if(currentParse != null) currentParse.cancel();
+				final ParseTask task = new ParseTask(expressionParser, textField.getText());
+				currentParse = task;
+				busyIndicator.visibleProperty().bind(task.runningProperty());
+				// Success! The finished tree is handed back to the application thread to be shown
+				task.setOnSucceeded(done -> showExpression(task.getValue(), expressionPane));
+				task.setOnFailed(failed -> {
+					if(task.getException() instanceof ExpressionParseException) {
+						// If we can't parse the expression, then mark it in red
+						textField.setStyle("-fx-text-fill: red");
 					}
-				} catch (ExpressionParseException epe) {
-					// If we can't parse the expression, then mark it in red
-					textField.setStyle("-fx-text-fill: red");
-				}
+					else LOGGER.log(Level.WARNING, "Cannot parse expression", task.getException());
+				});
+				parseExecutor.execute(task);
 			}
 		});
 		queryPane.getChildren().add(button);
+		queryPane.getChildren().add(busyIndicator);
 
 		// Reset the color to black whenever the user presses a key
 		textField.setOnKeyPressed(e -> textField.setStyle("-fx-text-fill: black"));
+		// A parse of text that has since changed is of no use any more
+		textField.textProperty().addListener((observable, oldText, newText) -> {
+			if(currentParse != null) currentParse.cancel();
+		});
 		
 		final BorderPane root = new BorderPane();
 		root.setTop(queryPane);
@@ -304,4 +345,33 @@ public class ExpressionEditor extends Application {
 		primaryStage.setScene(new Scene(root, WINDOW_WIDTH, WINDOW_HEIGHT));
 		primaryStage.show();
 	}
+
+	/**
+	 * Helper function for start to show a parsed expression, on the application thread
+	 * @param expression the expression to show, whose view has already been made
+	 * @param expressionPane the pane to show it in
+	 */
+	private void showExpression (Expression expression, Pane expressionPane) {
+		LOGGER.fine(() -> expression.convertToString(0));
+		expressionPane.getChildren().clear();
+		final Node expressionNode = ExpressionView.of(expression).getNode();
+		expressionPane.getChildren().add(expressionNode);
+		expressionNode.setLayoutX(WINDOW_WIDTH/4);
+		expressionNode.setLayoutY(WINDOW_HEIGHT/2);
+		expressionPane.setStyle("-fx-font: 24 \"Comic Sans MS\";"); //set font to best font
+
+		// If the parsed expression is a CompoundExpression, then register some callbacks
+		if (!((ParsedExpression)expression).isLiteral()) {
+			((Pane) expressionNode).setBorder(ExpressionView.NO_BORDER);
+			final MouseEventHandler eventHandler = new MouseEventHandler(expressionPane, (CompoundExpression) expression);
+			expressionPane.setOnMousePressed(eventHandler);
+			expressionPane.setOnMouseDragged(eventHandler);
+			expressionPane.setOnMouseReleased(eventHandler);
+		}
+	}
+
+	@Override
+	public void stop () {
+		parseExecutor.shutdownNow(); //cancels a parse that is still running
+	}
 }
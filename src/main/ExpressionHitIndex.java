@@ -0,0 +1,223 @@
+package main;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javafx.geometry.BoundingBox;
+import javafx.geometry.Bounds;
+import javafx.geometry.Point2D;
+import javafx.scene.Node;
+
+/**
+ * Index over the laid out nodes of an expression tree, for answering "which expression is under the mouse" in O(log n).
+ * Expressions are laid out left to right, so every expression covers an x-interval that contains its children's intervals.
+ * The edges of all the intervals are kept in one sorted array, and each gap between two edges remembers the deepest
+ * expression covering it, so a lookup is a binary search followed by a short walk up the tree to check y.
+ * Building the index is O(n log n). It has to be rebuilt when the layout changes, for example when children are reordered;
+ * lookups don't allocate.
+ */
+public class ExpressionHitIndex {
+	final private Map<ParsedExpression, Integer> _indices;
+	final private ParsedExpression[] _expressions;
+	final private int[] _parents;
+	final private double[] _minY;
+	final private double[] _maxY;
+	final private double[] _edges;
+	final private int[] _deepest;
+	final private double _originX;
+	final private double _originY;
+
+	/**
+	 * Builds the index for an expression tree that has been laid out
+	 * @param root the top of the tree
+	 */
+	public ExpressionHitIndex(ParsedExpression root) {
+		this(root, ExpressionView.of(root).getNode().localToScene(0, 0), layoutBounds(root));
+	}
+
+	/**
+	 * Builds the index from bounds that are already known
+	 * @param root the top of the tree
+	 * @param origin where the root's origin is in the scene
+	 * @param bounds the bounds of every expression in the tree, in the root's coordinates
+	 */
+	public ExpressionHitIndex(ParsedExpression root, Point2D origin, Map<ParsedExpression, Bounds> bounds) {
+		_originX = origin.getX();
+		_originY = origin.getY();
+		_indices = new IdentityHashMap<ParsedExpression, Integer>();
+
+		// number the expressions in pre-order, so parents always come before their children
+		final List<ParsedExpression> order = new ArrayList<ParsedExpression>();
+		final List<Integer> parents = new ArrayList<Integer>();
+		final ArrayDeque<ParsedExpression> toVisit = new ArrayDeque<ParsedExpression>();
+		final ArrayDeque<Integer> visitParents = new ArrayDeque<Integer>();
+		toVisit.push(root);
+		visitParents.push(-1);
+		while(!toVisit.isEmpty()) {
+			final ParsedExpression current = toVisit.pop();
+			final int index = order.size();
+			order.add(current);
+			parents.add(visitParents.pop());
+			_indices.put(current, index);
+			for(int i = current.getChildren().size()-1; i >= 0; i--) {
+				toVisit.push((ParsedExpression) current.getChildren().get(i));
+				visitParents.push(index);
+			}
+		}
+
+		final int size = order.size();
+		_expressions = order.toArray(new ParsedExpression[size]);
+		_parents = new int[size];
+		_minY = new double[size];
+		_maxY = new double[size];
+		final double[] minX = new double[size];
+		final double[] maxX = new double[size];
+		final double[] allEdges = new double[2*size];
+		for(int i = 0; i < size; i++) {
+			final Bounds expressionBounds = bounds.get(_expressions[i]);
+			_parents[i] = parents.get(i);
+			minX[i] = expressionBounds.getMinX();
+			maxX[i] = expressionBounds.getMaxX();
+			_minY[i] = expressionBounds.getMinY();
+			_maxY[i] = expressionBounds.getMaxY();
+			allEdges[2*i] = minX[i];
+			allEdges[2*i+1] = maxX[i];
+		}
+
+		// sorted, distinct edges; gap g is [edges[g], edges[g+1])
+		Arrays.sort(allEdges);
+		int distinct = 0;
+		for(int i = 0; i < allEdges.length; i++) {
+			if(distinct == 0 || allEdges[i] != allEdges[distinct-1]) allEdges[distinct++] = allEdges[i];
+		}
+		_edges = Arrays.copyOf(allEdges, distinct);
+		final int gaps = Math.max(0, distinct-1);
+		_deepest = new int[gaps];
+		Arrays.fill(_deepest, -1);
+		// each gap belongs to the last expression in pre-order that covers it, which is the deepest one. Going backwards,
+		// children come before their parents and each gap is filled by the first expression that reaches it; filled gaps are
+		// skipped through nextOpen, so every gap is filled once and the whole fill is O(n log n)
+		final int[] nextOpen = new int[gaps+1]; //nextOpen[g] leads to the first gap at or after g that isn't filled yet
+		for(int g = 0; g <= gaps; g++) {
+			nextOpen[g] = g;
+		}
+		for(int i = size-1; i >= 0; i--) {
+			final int last = Arrays.binarySearch(_edges, maxX[i]);
+			for(int g = findOpen(nextOpen, Arrays.binarySearch(_edges, minX[i])); g < last; g = findOpen(nextOpen, g+1)) {
+				_deepest[g] = i;
+				nextOpen[g] = g+1;
+			}
+		}
+	}
+
+	/**
+	 * Helper function for the constructor to find the first gap that isn't filled yet, shortening the chain of filled
+	 * gaps on the way so later searches skip them
+	 * @param nextOpen for each gap, itself if it is still open, otherwise a later gap to look at
+	 * @param g the gap to start from
+	 * @return the first open gap at or after g, or the number of gaps if there is none
+	 */
+	private static int findOpen(int[] nextOpen, int g) {
+		while(nextOpen[g] != g) {
+			nextOpen[g] = nextOpen[nextOpen[g]];
+			g = nextOpen[g];
+		}
+		return g;
+	}
+
+	/**
+	 * Helper function for the constructor to work out every expression's bounds in the root's coordinates from its node.
+	 * A node's origin is its parent's origin moved by the node's layout position, and its bounds in its parent are its
+	 * own bounds moved the same way.
+	 * @param root the top of the tree
+	 * @return the bounds of every expression in the tree
+	 */
+	private static Map<ParsedExpression, Bounds> layoutBounds(ParsedExpression root) {
+		final Map<ParsedExpression, Bounds> bounds = new IdentityHashMap<ParsedExpression, Bounds>();
+		final ArrayDeque<ParsedExpression> toVisit = new ArrayDeque<ParsedExpression>();
+		final ArrayDeque<Point2D> parentOrigins = new ArrayDeque<Point2D>();
+		toVisit.push(root);
+		parentOrigins.push(Point2D.ZERO);
+		while(!toVisit.isEmpty()) {
+			final ParsedExpression current = toVisit.pop();
+			final Point2D parentOrigin = parentOrigins.pop();
+			final Node node = ExpressionView.of(current).getNode();
+			final Bounds inParent = current == root ? node.getLayoutBounds() : node.getBoundsInParent();
+			bounds.put(current, new BoundingBox(parentOrigin.getX() + inParent.getMinX(), parentOrigin.getY() + inParent.getMinY(),
+					inParent.getWidth(), inParent.getHeight()));
+			final Point2D origin = current == root ? Point2D.ZERO
+					: parentOrigin.add(node.getLayoutX() + node.getTranslateX(), node.getLayoutY() + node.getTranslateY());
+			for(Expression child : current.getChildren()) {
+				toVisit.push((ParsedExpression) child);
+				parentOrigins.push(origin);
+			}
+		}
+		return bounds;
+	}
+
+	/**
+	 * Finds the deepest expression whose node contains a point
+	 * @param sceneX the x position of the point in the scene
+	 * @param sceneY the y position of the point in the scene
+	 * @return the index of the deepest expression under the point, -1 if there is none
+	 */
+	private int deepestIndexAt(double sceneX, double sceneY) {
+		final double x = sceneX - _originX;
+		final double y = sceneY - _originY;
+		int gap = Arrays.binarySearch(_edges, x);
+		if(gap < 0) gap = -gap - 2; //not exactly on an edge, so take the gap starting at the edge before x
+		if(gap < 0 || gap >= _deepest.length) return -1;
+		int index = _deepest[gap];
+		while(index != -1 && (y < _minY[index] || y > _maxY[index])) {
+			index = _parents[index];
+		}
+		return index;
+	}
+
+	/**
+	 * Finds the deepest expression whose node contains a point
+	 * @param sceneX the x position of the point in the scene
+	 * @param sceneY the y position of the point in the scene
+	 * @return the deepest expression under the point, null if there is none
+	 */
+	public ParsedExpression deepestAt(double sceneX, double sceneY) {
+		final int index = deepestIndexAt(sceneX, sceneY);
+		return index == -1 ? null : _expressions[index];
+	}
+
+	/**
+	 * Finds the child of an expression whose node contains a point
+	 * @param parent the expression whose children to look in
+	 * @param sceneX the x position of the point in the scene
+	 * @param sceneY the y position of the point in the scene
+	 * @return the child of parent under the point, null if there is none
+	 */
+	public ParsedExpression childAt(ParsedExpression parent, double sceneX, double sceneY) {
+		final Integer parentIndex = _indices.get(parent);
+		if(parentIndex == null) return null;
+		int index = deepestIndexAt(sceneX, sceneY);
+		while(index != -1 && _parents[index] != parentIndex) {
+			index = _parents[index];
+		}
+		return index == -1 ? null : _expressions[index];
+	}
+
+	/**
+	 * Finds the position closest to x in a sorted array of positions
+	 * @param sorted the positions, in increasing order
+	 * @param x the position to look for
+	 * @return the index of the closest position to x
+	 */
+	public static int nearest(double[] sorted, double x) {
+		int index = Arrays.binarySearch(sorted, x);
+		if(index >= 0) return index;
+		index = -index - 1; //the first position after x
+		if(index == 0) return 0;
+		if(index == sorted.length) return sorted.length-1;
+		return x - sorted[index-1] <= sorted[index] - x ? index-1 : index;
+	}
+}
@@ -0,0 +1,127 @@
+package main;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hash-conses expression trees: every distinct subtree is kept only once, and every tree interned through the same
+ * interner shares it, which turns a set of trees into a DAG. Machine-generated expressions that repeat the same subterms
+ * over and over shrink to one node per distinct subterm. Lookups use the structural hash that ImmutableExpression caches,
+ * and because children are interned before their parents, comparing a node with its interned twin only compares
+ * children by identity. Not safe to use from several threads at once.
+ */
+public class ExpressionInterner {
+	final private Map<ImmutableExpression, ImmutableExpression> _nodes;
+	private long _deduplicated;
+
+	public ExpressionInterner() {
+		_nodes = new HashMap<ImmutableExpression, ImmutableExpression>();
+	}
+
+	/**
+	 * Interns a mutable expression tree without making a full copy of it first. This works like deepCopy, except that
+	 * the copy is persistent and shares every subtree it can with the trees already interned.
+	 * @param x the tree to intern
+	 * @return the interned version of x
+	 */
+	public ImmutableExpression intern(Expression x) {
+		// built in post-order, so every node's children are already interned and on top of the built stack
+		final Deque<ParsedExpression> postOrder = ParsedExpression.postOrder((ParsedExpression) x);
+		final ArrayDeque<ImmutableExpression> built = new ArrayDeque<ImmutableExpression>();
+		while(!postOrder.isEmpty()) {
+			final ParsedExpression current = postOrder.pop();
+			final ImmutableExpression[] children = new ImmutableExpression[current.getChildren().size()];
+			for(int i = children.length-1; i >= 0; i--) {
+				children[i] = built.pop();
+			}
+			built.push(internNode(ImmutableExpression.of(current.getName(), children)));
+		}
+		return built.pop();
+	}
+
+	/**
+	 * Interns a persistent expression tree
+	 * @param x the tree to intern
+	 * @return the interned version of x, which is x itself if x was interned before
+	 */
+	public ImmutableExpression intern(ImmutableExpression x) {
+		final ImmutableExpression existing = _nodes.get(x);
+		if(existing != null) {
+			_deduplicated += countNodes(x);
+			return existing;
+		}
+		final Deque<ImmutableExpression> postOrder = ImmutableExpression.postOrder(x);
+		final ArrayDeque<ImmutableExpression> built = new ArrayDeque<ImmutableExpression>();
+		while(!postOrder.isEmpty()) {
+			final ImmutableExpression current = postOrder.pop();
+			final ImmutableExpression[] children = new ImmutableExpression[current.getChildCount()];
+			boolean same = true;
+			for(int i = children.length-1; i >= 0; i--) {
+				children[i] = built.pop();
+				same &= children[i] == current.getChild(i);
+			}
+			built.push(internNode(same ? current : ImmutableExpression.of(current.getName(), children)));
+		}
+		return built.pop();
+	}
+
+	/**
+	 * Interns one node whose children are already interned, for building interned trees bottom up
+	 * @param x the node to intern
+	 * @return the interned node equal to x
+	 */
+	ImmutableExpression internNode(ImmutableExpression x) {
+		final ImmutableExpression existing = _nodes.get(x);
+		if(existing != null) {
+			_deduplicated++;
+			return existing;
+		}
+		_nodes.put(x, x);
+		return x;
+	}
+
+	/**
+	 * Helper function to count the nodes of a tree, counting shared subtrees once for every place they appear
+	 * @param x the tree to count
+	 * @return the number of nodes in x
+	 */
+	private static long countNodes(ImmutableExpression x) {
+		long count = 0;
+		final ArrayDeque<ImmutableExpression> toCount = new ArrayDeque<ImmutableExpression>();
+		toCount.push(x);
+		while(!toCount.isEmpty()) {
+			final ImmutableExpression current = toCount.pop();
+			count++;
+			for(int i = 0; i < current.getChildCount(); i++) {
+				toCount.push(current.getChild(i));
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns how many nodes were replaced by an identical node that was already interned, which is how many nodes
+	 * interning has saved
+	 * @return the number of deduplicated nodes
+	 */
+	public long getDeduplicatedCount() {
+		return _deduplicated;
+	}
+
+	/**
+	 * Returns how many distinct nodes have been interned
+	 * @return the number of distinct nodes
+	 */
+	public int size() {
+		return _nodes.size();
+	}
+
+	/**
+	 * Forgets every interned node. Trees that were already interned keep sharing their subtrees.
+	 */
+	public void clear() {
+		_nodes.clear();
+	}
+}
@@ -0,0 +1,49 @@
+package main;
+
+/**
+ * The kinds of node an expression tree can have. An expression's kind is worked out from its name once,
+ * when the expression is made, so checking what an expression is never has to look at its name again.
+ */
+public enum ExpressionKind {
+	INTEGER_LITERAL(true),
+	NUMBER_LITERAL(true),
+	VARIABLE(true),
+	SUM(false),
+	PRODUCT(false),
+	PARENTHESIZED(false);
+
+	final private boolean _literal;
+
+	private ExpressionKind(boolean literal) {
+		_literal = literal;
+	}
+
+	/**
+	 * Function to check if expressions of this kind are literal, meaning they can't have children
+	 * @return true if literal, false otherwise
+	 */
+	public boolean isLiteral() {
+		return _literal;
+	}
+
+	/**
+	 * Works out the kind of an expression from its name
+	 * @param name the name of the expression: +, *, (), a string of digits, a single letter, or any other number
+	 * Double.parseDouble accepts, like 1.5, which SimpleExpressionParser allows
+	 * @return the kind of the expression
+	 */
+	public static ExpressionKind of(String name) {
+		if(name.equals("+")) return SUM;
+		if(name.equals("*")) return PRODUCT;
+		if(name.equals("()")) return PARENTHESIZED;
+		if(name.length() == 1 && Character.isLetter(name.charAt(0))) return VARIABLE;
+		if(name.isEmpty()) throw new IllegalArgumentException("Not an expression name: " + name);
+		for(int i = 0; i < name.length(); i++) {
+			if(name.charAt(i) < '0' || name.charAt(i) > '9') {
+				if(ParsedExpression.isNumber(name)) return NUMBER_LITERAL;
+				throw new IllegalArgumentException("Not an expression name: " + name);
+			}
+		}
+		return INTEGER_LITERAL;
+	}
+}
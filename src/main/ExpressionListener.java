@@ -0,0 +1,20 @@
+package main;
+
+/**
+ * Told about changes to an expression that a view of it needs to follow. The expression tree itself
+ * knows nothing about how it is shown, so it can be used without any GUI library.
+ */
+public interface ExpressionListener {
+	/**
+	 * Called after the children of an expression have been put in a different order
+	 * @param x the expression whose children moved
+	 */
+	void childrenReordered (ParsedExpression x);
+
+	/**
+	 * Called after one of the children of an expression has been replaced
+	 * @param x the expression whose child was replaced
+	 * @param index the index of the new child
+	 */
+	void childReplaced (ParsedExpression x, int index);
+}
@@ -0,0 +1,212 @@
+package main;
+
+import java.lang.management.ManagementFactory;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import jdk.jfr.EventType;
+
+/**
+ * Counters, latency histograms and node counts for the expensive operations on expressions: parsing, flattening,
+ * deep copying, making configurations, converting, and each phase of dragging in the editor.
+ * Measuring is off by default. It is turned on with -Dexpression.metrics=true, with setEnabled, or through the
+ * ExpressionMetrics MBean that registerMBeans adds to a JMX server next to one MBean per operation.
+ * Every measured operation is also a JFR event, main.ExpressionOperation, whenever a flight recording has it enabled,
+ * whether or not the metrics are on. When both are off, start returns a timer that does nothing, so measuring costs a
+ * couple of reads and a branch, and the node counts, which take a walk over the tree, are never worked out.
+ */
+public final class ExpressionMetrics {
+	/**
+	 * The operations that are measured
+	 */
+	public enum Operation {
+		/**
+		 * Text turned into a tree by LinearExpressionParser or SimpleExpressionParser, or answered from
+		 * CachingExpressionParser's cache. A cache miss is measured by the parser behind the cache, so it isn't counted twice.
+		 */
+		PARSE("parse"),
+		FLATTEN("flatten"),
+		DEEP_COPY("deepCopy"),
+		OTHER_CONFIGURATIONS("getOtherPossibleConfigurations"),
+		CONVERT_TO("convertTo"),
+		PRESS("press"),
+		DRAG("drag"),
+		RELEASE("release");
+
+		final private String _name;
+
+		Operation(String name) {
+			_name = name;
+		}
+
+		/**
+		 * Returns the name the operation is reported under, in JMX and in JFR
+		 * @return the name of the operation
+		 */
+		public String getName() {
+			return _name;
+		}
+	}
+
+	/**
+	 * The JMX domain the MBeans are registered in
+	 */
+	public static final String DOMAIN = "main";
+
+	private static final Operation[] OPERATIONS = Operation.values();
+	private static final OperationStats[] STATS = new OperationStats[OPERATIONS.length];
+	static {
+		for(int i = 0; i < OPERATIONS.length; i++) {
+			STATS[i] = new OperationStats();
+		}
+	}
+	private static final EventType EVENT_TYPE = EventType.getEventType(OperationEvent.class);
+	private static volatile boolean _enabled = Boolean.getBoolean("expression.metrics");
+
+	private ExpressionMetrics() {
+	}
+
+	/**
+	 * Starts measuring an operation. The timer that comes back must be stopped once the operation is done;
+	 * if it isn't, for example because the operation threw, nothing is recorded.
+	 * @param operation the operation that is starting
+	 * @return the timer to stop when the operation is done
+	 */
+	public static Timer start(Operation operation) {
+		final boolean enabled = _enabled;
+		if(!enabled && !EVENT_TYPE.isEnabled()) return Timer.OFF;
+		return new Timer(operation, enabled ? STATS[operation.ordinal()] : null);
+	}
+
+	/**
+	 * Function to check if the metrics are being collected
+	 * @return true if they are, false otherwise
+	 */
+	public static boolean isEnabled() {
+		return _enabled;
+	}
+
+	/**
+	 * Turns collecting the metrics on or off. What has been collected so far is kept.
+	 * @param enabled true to collect metrics, false to stop
+	 */
+	public static void setEnabled(boolean enabled) {
+		_enabled = enabled;
+	}
+
+	/**
+	 * Returns the metrics of one operation
+	 * @param operation the operation
+	 * @return its metrics, which keep changing as more operations are measured
+	 */
+	public static OperationStatsMXBean getStats(Operation operation) {
+		return STATS[operation.ordinal()];
+	}
+
+	/**
+	 * Throws away everything collected so far, for every operation
+	 */
+	public static void reset() {
+		for(int i = 0; i < STATS.length; i++) {
+			STATS[i].reset();
+		}
+	}
+
+	/**
+	 * Registers the MBeans with the platform MBean server, if they aren't already
+	 */
+	public static void registerMBeans() {
+		try {
+			registerMBeans(ManagementFactory.getPlatformMBeanServer());
+		} catch (InstanceAlreadyExistsException e) {
+			//registered already, by an earlier call
+		} catch (JMException e) {
+			throw new IllegalStateException("Cannot register the expression metrics", e);
+		}
+	}
+
+	/**
+	 * Registers the MBeans with an MBean server: main:type=ExpressionMetrics to turn the metrics on and off,
+	 * and main:type=ExpressionMetrics,operation=name with the metrics of each operation
+	 * @param server the server to register the MBeans with
+	 * @throws JMException if an MBean can't be registered
+	 */
+	public static void registerMBeans(MBeanServer server) throws JMException {
+		server.registerMBean(new Control(), new ObjectName(DOMAIN + ":type=ExpressionMetrics"));
+		for(int i = 0; i < OPERATIONS.length; i++) {
+			server.registerMBean(STATS[i], new ObjectName(DOMAIN + ":type=ExpressionMetrics,operation=" + OPERATIONS[i].getName()));
+		}
+	}
+
+	/**
+	 * Measures one run of an operation
+	 */
+	public static final class Timer {
+		/**
+		 * The timer start gives out when nothing is being measured
+		 */
+		private static final Timer OFF = new Timer();
+
+		final private OperationStats _stats;
+		final private OperationEvent _event;
+		final private long _start;
+
+		private Timer() {
+			_stats = null;
+			_event = null;
+			_start = 0;
+		}
+
+		private Timer(Operation operation, OperationStats stats) {
+			_stats = stats;
+			if(EVENT_TYPE.isEnabled()) {
+				_event = new OperationEvent();
+				_event.operation = operation.getName();
+				_event.begin();
+			}
+			else _event = null;
+			_start = System.nanoTime();
+		}
+
+		/**
+		 * Stops the timer and records the operation
+		 * @param x the expression the operation worked on or made, whose nodes are counted; null if there is none
+		 */
+		public void stop(Expression x) {
+			if(this == OFF) return;
+			stop(x == null ? 0 : ParsedExpression.countNodes((ParsedExpression) x));
+		}
+
+		/**
+		 * Stops the timer and records the operation
+		 * @param nodeCount the number of nodes the operation worked on or made
+		 */
+		public void stop(int nodeCount) {
+			if(this == OFF) return;
+			final long elapsed = System.nanoTime() - _start;
+			if(_stats != null) _stats.record(elapsed, nodeCount);
+			if(_event != null) {
+				_event.nodeCount = nodeCount;
+				_event.commit();
+			}
+		}
+	}
+
+	/**
+	 * The MBean that turns the metrics on and off
+	 */
+	private static class Control implements ExpressionMetricsMXBean {
+		public boolean isEnabled() {
+			return ExpressionMetrics.isEnabled();
+		}
+
+		public void setEnabled(boolean enabled) {
+			ExpressionMetrics.setEnabled(enabled);
+		}
+
+		public void reset() {
+			ExpressionMetrics.reset();
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package main;
+
+/**
+ * Management interface to turn the expression metrics on and off, registered as main:type=ExpressionMetrics
+ */
+public interface ExpressionMetricsMXBean {
+	/**
+	 * Function to check if the metrics are being collected
+	 * @return true if they are, false otherwise
+	 */
+	boolean isEnabled();
+
+	/**
+	 * Turns collecting the metrics on or off
+	 * @param enabled true to collect metrics, false to stop
+	 */
+	void setEnabled(boolean enabled);
+
+	/**
+	 * Throws away everything collected so far, for every operation
+	 */
+	void reset();
+}
@@ -0,0 +1,174 @@
+package main;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads expression trees written by ExpressionWriter. Nothing is tokenized: every node is one tag byte and at most one
+ * varint, and variable names are decoded once per stream and shared by every expression that uses them. A whole file of
+ * expressions can be memory-mapped with open, so loading it doesn't copy the file into the heap first.
+ */
+public class ExpressionReader {
+	final private ByteBuffer _in;
+	final private List<String> _symbols;
+
+	/**
+	 * Makes a reader for the serialized expressions between the buffer's position and its limit, and checks the header.
+	 * The reader moves the buffer's position as it reads.
+	 * @param in the buffer to read from
+	 * @throws StreamCorruptedException if the buffer doesn't start with the header
+	 */
+	public ExpressionReader(ByteBuffer in) throws StreamCorruptedException {
+		_in = in;
+		_symbols = new ArrayList<String>();
+		for(int i = 0; i < ExpressionWriter.MAGIC.length; i++) {
+			if(!_in.hasRemaining() || _in.get() != ExpressionWriter.MAGIC[i]) throw new StreamCorruptedException("Not a serialized expression stream");
+		}
+	}
+
+	/**
+	 * Makes a reader for a file of serialized expressions, by mapping the file into memory. The mapping stays valid
+	 * after the file is closed. Files bigger than 2GB can't be mapped into a single buffer.
+	 * @param file the file to read
+	 * @return a reader for the file
+	 * @throws IOException if the file can't be read or doesn't start with the header
+	 */
+	public static ExpressionReader open(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return new ExpressionReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	/**
+	 * Function to check if there are any expressions left to read
+	 * @return true if there is another expression, false otherwise
+	 */
+	public boolean hasNext() {
+		return _in.hasRemaining();
+	}
+
+	/**
+	 * Reads the next expression tree
+	 * @return the root of the tree
+	 * @throws StreamCorruptedException if the data is not a valid expression
+	 */
+	public ParsedExpression next() throws StreamCorruptedException {
+		// pre-order, so each node is added to the nearest operator above it that still needs children
+		final ArrayDeque<ParsedExpression> parents = new ArrayDeque<ParsedExpression>();
+		final ArrayDeque<Long> missing = new ArrayDeque<Long>(); //how many children each operator in parents still needs
+		ParsedExpression root = null;
+		do {
+			final ParsedExpression current = readNode();
+			if(root == null) root = current;
+			else {
+				parents.peek().addSubexpression(current);
+				final long left = missing.pop() - 1;
+				if(left == 0) parents.pop();
+				else missing.push(left);
+			}
+			if(!current.isLiteral()) {
+				final long children = readVarint();
+				if(children <= 0) throw new StreamCorruptedException("Operator " + current.getName() + " has no children");
+				if(current.getKind() == ExpressionKind.PARENTHESIZED && children != 1) {
+					throw new StreamCorruptedException("Parentheses have " + children + " children instead of 1");
+				}
+				parents.push(current);
+				missing.push(children);
+			}
+		} while(!parents.isEmpty());
+		return root;
+	}
+
+	/**
+	 * Helper function for next to read a single node, without its children
+	 * @return the node
+	 * @throws StreamCorruptedException if the data is not a valid node
+	 */
+	private ParsedExpression readNode() throws StreamCorruptedException {
+		if(!_in.hasRemaining()) throw new StreamCorruptedException("Unexpected end of data");
+		final int tag = _in.get();
+		switch(tag) {
+		case ExpressionWriter.TAG_SUM:
+			return new ParsedExpression("+", ExpressionKind.SUM, 0);
+		case ExpressionWriter.TAG_PRODUCT:
+			return new ParsedExpression("*", ExpressionKind.PRODUCT, 0);
+		case ExpressionWriter.TAG_PARENTHESIZED:
+			return new ParsedExpression("()", ExpressionKind.PARENTHESIZED, 0);
+		case ExpressionWriter.TAG_INTEGER:
+			final long value = readVarint();
+			if(value < 0) throw new StreamCorruptedException("Literal out of range");
+			return new ParsedExpression(Long.toString(value), ExpressionKind.INTEGER_LITERAL, value);
+		case ExpressionWriter.TAG_DIGITS:
+			final String digits = new String(readBytes(), StandardCharsets.US_ASCII);
+			checkKind(digits, ExpressionKind.INTEGER_LITERAL);
+			return new ParsedExpression(digits);
+		case ExpressionWriter.TAG_NUMBER:
+			final String number = new String(readBytes(), StandardCharsets.US_ASCII);
+			checkKind(number, ExpressionKind.NUMBER_LITERAL);
+			return new ParsedExpression(number);
+		case ExpressionWriter.TAG_NEW_SYMBOL:
+			final String name = new String(readBytes(), StandardCharsets.UTF_8);
+			checkKind(name, ExpressionKind.VARIABLE);
+			_symbols.add(name);
+			return new ParsedExpression(name, ExpressionKind.VARIABLE, 0);
+		case ExpressionWriter.TAG_SYMBOL:
+			final long symbol = readVarint();
+			if(symbol >= _symbols.size()) throw new StreamCorruptedException("Unknown symbol " + symbol);
+			return new ParsedExpression(_symbols.get((int) symbol), ExpressionKind.VARIABLE, 0);
+		default:
+			throw new StreamCorruptedException("Unknown tag " + tag);
+		}
+	}
+
+	/**
+	 * Checks that a name read from the data is of the kind its tag says
+	 * @param name the name that was read
+	 * @param kind the kind the name should be
+	 * @throws StreamCorruptedException if the name is of another kind, or not a valid name
+	 */
+	private static void checkKind(String name, ExpressionKind kind) throws StreamCorruptedException {
+		try {
+			if(ExpressionKind.of(name) == kind) return;
+		} catch (IllegalArgumentException e) {
+			//not a name at all, which is reported the same way
+		}
+		throw new StreamCorruptedException("Bad name " + name);
+	}
+
+	/**
+	 * Reads a length-prefixed array of bytes
+	 * @return the bytes
+	 * @throws StreamCorruptedException if there aren't that many bytes left
+	 */
+	private byte[] readBytes() throws StreamCorruptedException {
+		final long length = readVarint();
+		if(length > _in.remaining()) throw new StreamCorruptedException("Unexpected end of data");
+		final byte[] bytes = new byte[(int) length];
+		_in.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Reads an unsigned varint
+	 * @return the number
+	 * @throws StreamCorruptedException if the varint is cut off or too long
+	 */
+	private long readVarint() throws StreamCorruptedException {
+		long value = 0;
+		for(int shift = 0; shift < 64; shift += 7) {
+			if(!_in.hasRemaining()) throw new StreamCorruptedException("Unexpected end of data");
+			final int b = _in.get();
+			value |= (long) (b & 0x7F) << shift;
+			if((b & 0x80) == 0) return value;
+		}
+		throw new StreamCorruptedException("Varint too long");
+	}
+}
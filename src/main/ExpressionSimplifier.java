@@ -0,0 +1,301 @@
+package main;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Makes smaller expressions that mean the same thing, for example to shrink big generated expressions before they are
+ * shown or evaluated. In a single bottom-up pass over the tree it:
+ * folds constants, so 2*3*x becomes 6*x and x+1+2 becomes x+3;
+ * removes identities, so x+0 becomes x, 1*y becomes y, and anything times 0 becomes 0;
+ * unwraps parentheses that don't change the meaning, so (x*y)+(z) becomes x*y+z, keeping the ones around a sum inside a product;
+ * merges like terms of a sum, so 2*x+y+3*x becomes 5*x+y and x*y+y*x becomes 2*x*y.
+ * Like terms are found by the canonical form of the part without the constant, so the simplifier sees through reordering.
+ * Everything else stays in the order it was written in: merged terms and folded constants take the place of the first of them.
+ * Constants are only folded or merged if the result fits in a long.
+ */
+public class ExpressionSimplifier {
+	/**
+	 * Simplifies an expression. The expression itself is not changed.
+	 * @param x the expression to simplify
+	 * @return the simplified expression, and how many nodes were removed
+	 */
+	public SimplificationResult simplify(Expression x) {
+		return new Pass().run((ParsedExpression) x);
+	}
+
+	/**
+	 * One simplification, with the canonical nodes it has made so far so equal subtrees can be recognized quickly
+	 */
+	private static class Pass {
+		final private Map<ImmutableExpression, ImmutableExpression> _shared = new HashMap<ImmutableExpression, ImmutableExpression>();
+
+		/**
+		 * Simplifies a whole tree
+		 * @param x the root of the tree
+		 * @return the result
+		 */
+		SimplificationResult run(ParsedExpression x) {
+			// post-order from an explicit stack, so every node's children are already simplified and on top of the simplified stack
+			final Deque<ParsedExpression> postOrder = ParsedExpression.postOrder(x);
+			final int originalNodeCount = postOrder.size();
+			final ArrayDeque<Simplified> simplified = new ArrayDeque<Simplified>();
+			while(!postOrder.isEmpty()) {
+				final ParsedExpression current = postOrder.pop();
+				final List<Simplified> children = new ArrayList<Simplified>(current.getChildren().size());
+				for(int i = 0; i < current.getChildren().size(); i++) {
+					children.add(null);
+				}
+				for(int i = children.size()-1; i >= 0; i--) {
+					children.set(i, simplified.pop());
+				}
+				switch(current.getKind()) {
+				case SUM:
+					simplified.push(sum(children));
+					break;
+				case PRODUCT:
+					simplified.push(product(children));
+					break;
+				case PARENTHESIZED:
+					simplified.push(children.get(0)); //put back by operator if the inside is a sum in a product
+					break;
+				default:
+					simplified.push(leaf(current.getName()));
+				}
+			}
+			final ParsedExpression result = simplified.pop()._expression;
+			return new SimplificationResult(result, originalNodeCount, ParsedExpression.countNodes(result));
+		}
+
+		/**
+		 * Simplifies a sum whose operands are already simplified
+		 * @param children the simplified operands
+		 * @return the simplified sum
+		 */
+		private Simplified sum(List<Simplified> children) {
+			final List<Simplified> operands = splice(children, ExpressionKind.SUM);
+			// every operand goes into a slot: the slot of the folded constant, or of the like terms it is merged into
+			final List<LikeTerms> slots = new ArrayList<LikeTerms>();
+			final Map<ImmutableExpression, LikeTerms> terms = new LinkedHashMap<ImmutableExpression, LikeTerms>();
+			LikeTerms constant = null;
+			for(Simplified operand : operands) {
+				if(operand._isConstant) {
+					if(constant == null) {
+						constant = new LikeTerms(operand, 0, null);
+						slots.add(constant);
+					}
+					if(!constant.add(operand._value)) return operator(ExpressionKind.SUM, operands);
+					continue;
+				}
+				final Simplified coefficient = operand.constantFactor();
+				final List<Simplified> factors;
+				final ImmutableExpression key;
+				if(coefficient == null) {
+					factors = splice(Collections.singletonList(operand), ExpressionKind.PRODUCT); //a product's own factors, so merging it doesn't nest products
+					key = operand._canonical;
+				}
+				else {
+					factors = new ArrayList<Simplified>();
+					for(Simplified factor : operand._operands) {
+						if(factor != coefficient) factors.add(factor);
+					}
+					key = factors.size() == 1 ? factors.get(0)._canonical : canonical(ExpressionKind.PRODUCT, factors);
+				}
+				final LikeTerms like = terms.get(key);
+				if(like == null) {
+					final LikeTerms first = new LikeTerms(operand, coefficient == null ? 1 : coefficient._value, factors);
+					terms.put(key, first);
+					slots.add(first);
+				}
+				else if(!like.add(coefficient == null ? 1 : coefficient._value)) return operator(ExpressionKind.SUM, operands);
+			}
+			final List<Simplified> result = new ArrayList<Simplified>(slots.size());
+			for(LikeTerms slot : slots) {
+				if(slot == constant) {
+					if(slot._coefficient != 0) result.add(leaf(Long.toString(slot._coefficient))); //x+0 is just x
+				}
+				else if(slot._count == 1) result.add(slot._first); //nothing to merge, so it stays as it was
+				else {
+					final List<Simplified> factors = new ArrayList<Simplified>(slot._factors.size() + 1);
+					factors.add(leaf(Long.toString(slot._coefficient)));
+					factors.addAll(slot._factors);
+					result.add(operator(ExpressionKind.PRODUCT, factors));
+				}
+			}
+			if(result.isEmpty()) return leaf("0");
+			return result.size() == 1 ? result.get(0) : operator(ExpressionKind.SUM, result);
+		}
+
+		/**
+		 * Simplifies a product whose operands are already simplified
+		 * @param children the simplified operands
+		 * @return the simplified product
+		 */
+		private Simplified product(List<Simplified> children) {
+			final List<Simplified> operands = splice(children, ExpressionKind.PRODUCT);
+			long constant = 1;
+			int constantAt = -1;
+			final List<Simplified> result = new ArrayList<Simplified>(operands.size());
+			for(Simplified operand : operands) {
+				if(!operand._isConstant) {
+					result.add(operand);
+					continue;
+				}
+				if(constantAt == -1) constantAt = result.size(); //the folded constant goes where the first constant was
+				if(operand._value != 0 && constant > Long.MAX_VALUE / operand._value) return operator(ExpressionKind.PRODUCT, operands);
+				constant *= operand._value;
+			}
+			if(constant == 0) return leaf("0");
+			if(constant != 1) result.add(constantAt, leaf(Long.toString(constant))); //1*y is just y
+			if(result.isEmpty()) return leaf("1");
+			return result.size() == 1 ? result.get(0) : operator(ExpressionKind.PRODUCT, result);
+		}
+
+		/**
+		 * Replaces operands of the same kind as their parent by their own operands, the same as flatten does
+		 * @param children the operands
+		 * @param kind the kind of the parent
+		 * @return the operands with the ones of the same kind spliced in
+		 */
+		private static List<Simplified> splice(List<Simplified> children, ExpressionKind kind) {
+			final List<Simplified> operands = new ArrayList<Simplified>(children.size());
+			for(Simplified child : children) {
+				if(child._expression.getKind() == kind) operands.addAll(child._operands);
+				else operands.add(child);
+			}
+			return operands;
+		}
+
+		/**
+		 * Makes a literal or variable
+		 * @param name the name of the literal or variable
+		 * @return the simplified leaf
+		 */
+		private Simplified leaf(String name) {
+			final ParsedExpression expression = new ParsedExpression(name);
+			final boolean isConstant = expression.getKind() == ExpressionKind.INTEGER_LITERAL && name.length() <= 18; //18 digits always fit in a long
+			return new Simplified(expression, ImmutableExpression.canonicalNode(name, new ImmutableExpression[0], false, _shared), null,
+					isConstant, isConstant ? expression.getValue() : 0);
+		}
+
+		/**
+		 * Makes a sum or product of simplified operands, putting parentheses back around sums inside products
+		 * @param kind SUM or PRODUCT
+		 * @param operands the operands, at least two
+		 * @return the sum or product
+		 */
+		private Simplified operator(ExpressionKind kind, List<Simplified> operands) {
+			final ParsedExpression expression = new ParsedExpression(kind == ExpressionKind.SUM ? "+" : "*");
+			final ImmutableExpression[] canonicalOperands = new ImmutableExpression[operands.size()];
+			for(int i = 0; i < operands.size(); i++) {
+				final Simplified operand = operands.get(i);
+				if(kind == ExpressionKind.PRODUCT && operand._expression.getKind() == ExpressionKind.SUM) {
+					final ParsedExpression paren = new ParsedExpression("()");
+					paren.addSubexpression(operand._expression);
+					expression.addSubexpression(paren);
+					canonicalOperands[i] = ImmutableExpression.canonicalNode("()", new ImmutableExpression[] { operand._canonical }, false, _shared);
+				}
+				else {
+					expression.addSubexpression(operand._expression);
+					canonicalOperands[i] = operand._canonical;
+				}
+			}
+			return new Simplified(expression, ImmutableExpression.canonicalNode(expression.getName(), canonicalOperands, true, _shared), operands, false, 0);
+		}
+
+		/**
+		 * Works out the canonical form a sum or product of some operands would have, without making it
+		 * @param kind SUM or PRODUCT
+		 * @param operands the operands
+		 * @return the canonical form
+		 */
+		private ImmutableExpression canonical(ExpressionKind kind, List<Simplified> operands) {
+			final ImmutableExpression[] canonicalOperands = new ImmutableExpression[operands.size()];
+			for(int i = 0; i < operands.size(); i++) {
+				final Simplified operand = operands.get(i);
+				canonicalOperands[i] = kind == ExpressionKind.PRODUCT && operand._expression.getKind() == ExpressionKind.SUM
+						? ImmutableExpression.canonicalNode("()", new ImmutableExpression[] { operand._canonical }, false, _shared)
+						: operand._canonical;
+			}
+			return ImmutableExpression.canonicalNode(kind == ExpressionKind.SUM ? "+" : "*", canonicalOperands, true, _shared);
+		}
+	}
+
+	/**
+	 * A simplified subtree, with what the simplifier needs to know about it
+	 */
+	private static final class Simplified {
+		final private ParsedExpression _expression;
+		final private ImmutableExpression _canonical;
+		final private List<Simplified> _operands;
+		final private boolean _isConstant;
+		final private long _value;
+
+		/**
+		 * @param expression the simplified subtree
+		 * @param canonical its canonical form
+		 * @param operands the simplified operands of a sum or product, in order, null for anything else
+		 * @param isConstant true if the subtree is an integer literal that fits in a long
+		 * @param value the value of the literal, 0 if it isn't one
+		 */
+		Simplified(ParsedExpression expression, ImmutableExpression canonical, List<Simplified> operands, boolean isConstant, long value) {
+			_expression = expression;
+			_canonical = canonical;
+			_operands = operands;
+			_isConstant = isConstant;
+			_value = value;
+		}
+
+		/**
+		 * Returns the constant of a simplified product, which is the only constant it can have
+		 * @return the constant operand, null if this is not a product or has no constant
+		 */
+		Simplified constantFactor() {
+			if(_expression.getKind() != ExpressionKind.PRODUCT) return null;
+			for(Simplified operand : _operands) {
+				if(operand._isConstant) return operand;
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Terms of a sum that only differ in their constant factor, or the constants of a sum, which are added up
+	 */
+	private static final class LikeTerms {
+		final private Simplified _first;
+		final private List<Simplified> _factors;
+		private long _coefficient;
+		private int _count;
+
+		/**
+		 * @param first the first of the terms
+		 * @param coefficient the constant factor of the first term
+		 * @param factors the other factors of the first term, which all the terms have in common, null for constants
+		 */
+		LikeTerms(Simplified first, long coefficient, List<Simplified> factors) {
+			_first = first;
+			_factors = factors;
+			_coefficient = coefficient;
+			_count = 1;
+		}
+
+		/**
+		 * Adds another term
+		 * @param coefficient the constant factor of the term
+		 * @return false if the sum of the coefficients doesn't fit in a long, true otherwise
+		 */
+		boolean add(long coefficient) {
+			_count++;
+			if(_coefficient > Long.MAX_VALUE - coefficient) return false;
+			_coefficient += coefficient;
+			return true;
+		}
+	}
+}
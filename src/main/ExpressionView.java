@@ -0,0 +1,219 @@
+package main;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import javafx.scene.Node;
+import javafx.scene.control.Label;
+import javafx.scene.layout.Border;
+import javafx.scene.layout.BorderStroke;
+import javafx.scene.layout.BorderStrokeStyle;
+import javafx.scene.layout.BorderWidths;
+import javafx.scene.layout.CornerRadii;
+import javafx.scene.layout.HBox;
+import javafx.scene.paint.Color;
+import javafx.scene.paint.Paint;
+
+/**
+ * JavaFX view of a ParsedExpression: an HBox holding the nodes of the expression's children, with labels for
+ * the operators or parentheses between them. Views are attached to expressions as their ExpressionListener
+ * the first time they are asked for, and follow the expression when its children are reordered or replaced.
+ * This is the only place expressions meet JavaFX, so parsing and working with trees never loads it.
+ */
+public class ExpressionView implements ExpressionListener {
+	/**
+	 * Border for showing a focused expression
+	 */
+	public static final Border RED_BORDER = new Border(
+	  new BorderStroke(Color.RED, BorderStrokeStyle.SOLID, CornerRadii.EMPTY, BorderWidths.DEFAULT)
+	);
+
+	/**
+	 * Border for showing a non-focused expression
+	 */
+	public static final Border NO_BORDER = null;
+
+	/**
+	 * Color used for a "ghosted" expression
+	 */
+	public static final Color GHOST_COLOR = Color.LIGHTGREY;
+
+	/**
+	 * Styles for focused and non-focused expressions. Both have the same 1px border, so focusing an expression only
+	 * changes a color and never moves anything.
+	 */
+	private static final String FOCUSED_STYLE = "-fx-border-color: red;";
+	private static final String UNFOCUSED_STYLE = "-fx-border-color: transparent;";
+
+	final private ParsedExpression _expression;
+	final private HBox _node;
+	final private List<Label> _labelList;
+	private boolean isFocused;
+
+	/**
+	 * Makes the view of an expression whose children already have views
+	 * @param expression the expression to show
+	 */
+	private ExpressionView(ParsedExpression expression) {
+		_expression = expression;
+		_labelList = new ArrayList<Label>();
+		final List<Expression> children = expression.getChildren();
+		if(expression.isLiteral()) {
+			_labelList.add(new Label(expression.getName())); //add to a list of labels for this expression
+			_node = new HBox(_labelList.get(0)); //creates node
+		}
+		else {
+			_node = new HBox();
+			if(expression.getKind() != ExpressionKind.PARENTHESIZED) {
+				Label name = new Label(expression.getName());
+				for(int i = 0; i < children.size(); i++) {
+					_node.getChildren().add(of(children.get(i)).getNode());
+					if(i != children.size()-1) _node.getChildren().add(name);
+					_labelList.add(name);
+					name = new Label(expression.getName()); //avoids the error of adding the same label to the HBox's children by just making a new Label with same string contents.
+				}
+			}
+			else {
+				final Label openParen = new Label("(");
+				_labelList.add(openParen);
+				_node.getChildren().add(openParen);
+				for(int i = 0; i < children.size(); i++) {
+					_node.getChildren().add(of(children.get(i)).getNode());
+				}
+				final Label closedParen = new Label(")");
+				_labelList.add(closedParen);
+				_node.getChildren().add(closedParen);
+			}
+		}
+		_node.setStyle(UNFOCUSED_STYLE); //the border is always there and focusing only changes its color, so it never changes the layout
+	}
+
+	/**
+	 * Returns the view of an expression, making views for it and any of its subexpressions that don't have one yet
+	 * @param x the expression to show
+	 * @return the view of x
+	 */
+	public static ExpressionView of(Expression x) {
+		return of(x, () -> false);
+	}
+
+	/**
+	 * Returns the view of an expression like of(Expression), checking before each view is made whether to give up.
+	 * The views made before giving up stay attached, so asking again carries on where this stopped.
+	 * @param x the expression to show
+	 * @param cancelled says whether to give up
+	 * @return the view of x, null if it was given up before it was finished
+	 */
+	public static ExpressionView of(Expression x, BooleanSupplier cancelled) {
+		final ParsedExpression expression = (ParsedExpression) x;
+		if(expression.getListener() instanceof ExpressionView) return (ExpressionView) expression.getListener();
+		// views are made bottom up, so every child's node exists by the time its parent's is made; subtrees that already have views are left out
+		for(ParsedExpression current : ParsedExpression.postOrder(expression, y -> y.getListener() instanceof ExpressionView)) {
+			if(cancelled.getAsBoolean()) return null;
+			current.setListener(new ExpressionView(current));
+		}
+		return (ExpressionView) expression.getListener();
+	}
+
+	/**
+	 * Returns the expression this is a view of
+	 * @return the expression
+	 */
+	public ParsedExpression getExpression() {
+		return _expression;
+	}
+
+	/**
+	 * Returns the JavaFX node associated with this expression.
+	 * @return the JavaFX node associated with this expression.
+	 */
+	public Node getNode() {
+		return _node;
+	}
+
+	/**
+	 * Moves the node's existing child nodes and operator labels into the expression's new order. Nothing is rebuilt,
+	 * and the children's own nodes are untouched.
+	 * @param x the expression whose children moved
+	 */
+	public void childrenReordered(ParsedExpression x) {
+		if(x.getKind() == ExpressionKind.PARENTHESIZED) return; //only has one child so can't be reordered
+		final List<Expression> children = x.getChildren();
+		final List<Node> current = _node.getChildren();
+		final List<Node> reordered = new ArrayList<Node>(current.size());
+		for(int i = 0; i < children.size(); i++) {
+			reordered.add(of(children.get(i)).getNode());
+			if(i != children.size()-1) reordered.add(current.get(2*i+1)); //the operator labels sit between the children
+		}
+		_node.getChildren().setAll(reordered);
+	}
+
+	/**
+	 * Puts the node of the new child where the old child's node was
+	 * @param x the expression whose child was replaced
+	 * @param index the index of the new child
+	 */
+	public void childReplaced(ParsedExpression x, int index) {
+		final Node replacement = of(x.getChildren().get(index)).getNode();
+		_node.getChildren().set(x.getKind() == ExpressionKind.PARENTHESIZED ? 1 : 2*index, replacement); //skip past the ( label or the operator labels
+	}
+
+	/**
+	 * Function to set the node of this expression to a certain color
+	 * @param color the color to set to
+	 */
+	public void setExpressionColor(Paint color) {
+		final ArrayDeque<ExpressionView> toColor = new ArrayDeque<ExpressionView>();
+		toColor.push(this);
+		while(!toColor.isEmpty()) {
+			final ExpressionView current = toColor.pop();
+			for(int i = 0; i < current._labelList.size(); i++) {
+				current._labelList.get(i).setTextFill(color);
+			}
+			current._node.setStyle(current.isFocused ? FOCUSED_STYLE : UNFOCUSED_STYLE);
+			for(Expression child : current._expression.getChildren()) {
+				toColor.push(of(child));
+			}
+		}
+	}
+
+	/**
+	 * Set whether this node is focused or not
+	 * @param x true if focused, false otherwise
+	 */
+	public void setFocused(boolean x) {
+		isFocused = x;
+		if(!x) setExpressionColor(Paint.valueOf("black"));
+	}
+
+	/**
+	 * Function to work out where this expression would be in each configuration getOtherPossibleConfigurations would make,
+	 * without making any of them. The positions are worked out from the laid out widths of the parent's child nodes, operator
+	 * labels and spacing, so the parent's node must have been laid out.
+	 * @return the x position of the center of this expression, in the coordinates of the parent's node, when it is moved to
+	 * each index of the parent's children
+	 */
+	public double[] getConfigurationPositions() {
+		final HBox parentNode = of(_expression.getParent())._node;
+		final List<Expression> siblings = ((ParsedExpression) _expression.getParent()).getChildren();
+		final List<Node> laidOut = parentNode.getChildren();
+		final int size = siblings.size();
+		final int index = siblings.indexOf(_expression);
+		final double spacing = parentNode.getSpacing();
+		final double width = _node.getBoundsInParent().getWidth();
+		final double[] positions = new double[size];
+		double x = of(siblings.get(0)).getNode().getBoundsInParent().getMinX(); //left edge of this expression when it is at index i
+		int sibling = 0;
+		for(int i = 0; i < size; i++) {
+			positions[i] = x + width/2;
+			if(i == size-1) break;
+			// at index i+1 there is one more of the other siblings, and the operator after it, to the left of this expression
+			if(sibling == index) sibling++;
+			x += of(siblings.get(sibling)).getNode().getBoundsInParent().getWidth() + laidOut.get(2*i+1).getBoundsInParent().getWidth() + 2*spacing;
+			sibling++;
+		}
+		return positions;
+	}
+}
@@ -0,0 +1,170 @@
+package main;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes expression trees in a compact binary format that ExpressionReader can load back without parsing any text.
+ * The output starts with the 4 byte MAGIC and is followed by the expressions one after another. Each expression is
+ * its nodes in pre-order, and each node is a tag byte followed by:
+ * TAG_SUM, TAG_PRODUCT, TAG_PARENTHESIZED: the number of children, which is at least 1 and exactly 1 for TAG_PARENTHESIZED,
+ * then the children
+ * TAG_INTEGER: the value of the literal
+ * TAG_DIGITS: the number of digits, then the digits in ASCII, for literals with leading zeros or too long for TAG_INTEGER
+ * TAG_NEW_SYMBOL: the length of the variable's name in UTF-8, then the name, which gets the next symbol number
+ * TAG_SYMBOL: the symbol number of a variable whose name has already been written
+ * TAG_NUMBER: the length of a number literal that isn't an integer, like 1.5, then its text in ASCII
+ * Numbers are unsigned varints: 7 bits per byte, least significant first, with the top bit set on every byte but the last.
+ * The symbol table is shared by every expression written, so a variable's name is only written once per stream.
+ */
+public class ExpressionWriter implements Closeable, Flushable {
+	/**
+	 * The first bytes of every stream of serialized expressions
+	 */
+	static final byte[] MAGIC = {'E', 'X', 'P', 1};
+
+	static final int TAG_SUM = 0;
+	static final int TAG_PRODUCT = 1;
+	static final int TAG_PARENTHESIZED = 2;
+	static final int TAG_INTEGER = 3;
+	static final int TAG_DIGITS = 4;
+	static final int TAG_NEW_SYMBOL = 5;
+	static final int TAG_SYMBOL = 6;
+	static final int TAG_NUMBER = 7;
+
+	final private DataOutputStream _out;
+	final private Map<String, Integer> _symbols;
+
+	/**
+	 * Makes a writer and writes the header. The stream is buffered by the writer.
+	 * @param out the stream to write the expressions to
+	 * @throws IOException if the stream fails
+	 */
+	public ExpressionWriter(OutputStream out) throws IOException {
+		_out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+		_symbols = new HashMap<String, Integer>();
+		_out.write(MAGIC);
+	}
+
+	/**
+	 * Writes one expression tree
+	 * @param x the root of the tree to write
+	 * @throws IOException if the stream fails
+	 */
+	public void write(Expression x) throws IOException {
+		// pre-order from an explicit stack, so deep trees can't overflow the call stack
+		final ArrayDeque<ParsedExpression> toWrite = new ArrayDeque<ParsedExpression>();
+		toWrite.push((ParsedExpression) x);
+		while(!toWrite.isEmpty()) {
+			final ParsedExpression current = toWrite.pop();
+			writeNode(current);
+			final List<Expression> children = current.getChildren();
+			for(int i = children.size()-1; i >= 0; i--) { //pushed backwards so they are written in order
+				toWrite.push((ParsedExpression) children.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Helper function for write to write a single node, without its children
+	 * @param x the node to write
+	 * @throws IOException if the stream fails
+	 */
+	private void writeNode(ParsedExpression x) throws IOException {
+		switch(x.getKind()) {
+		case SUM:
+			writeOperator(TAG_SUM, x);
+			break;
+		case PRODUCT:
+			writeOperator(TAG_PRODUCT, x);
+			break;
+		case PARENTHESIZED:
+			writeOperator(TAG_PARENTHESIZED, x);
+			break;
+		case INTEGER_LITERAL:
+			final String digits = x.getName();
+			// 18 digits always fit in a long, and without leading zeros the value gives back the same name
+			if(digits.length() <= 18 && (digits.length() == 1 || digits.charAt(0) != '0')) {
+				_out.write(TAG_INTEGER);
+				writeVarint(x.getValue());
+			}
+			else writeBytes(TAG_DIGITS, digits.getBytes(StandardCharsets.US_ASCII));
+			break;
+		case NUMBER_LITERAL:
+			writeBytes(TAG_NUMBER, x.getName().getBytes(StandardCharsets.US_ASCII));
+			break;
+		case VARIABLE:
+			final Integer symbol = _symbols.get(x.getName());
+			if(symbol != null) {
+				_out.write(TAG_SYMBOL);
+				writeVarint(symbol);
+			}
+			else {
+				_symbols.put(x.getName(), _symbols.size());
+				writeBytes(TAG_NEW_SYMBOL, x.getName().getBytes(StandardCharsets.UTF_8));
+			}
+			break;
+		}
+	}
+
+	/**
+	 * Helper function for writeNode to write an operator's tag and number of children
+	 * @param tag the tag of the operator
+	 * @param x the operator
+	 * @throws IOException if the stream fails
+	 */
+	private void writeOperator(int tag, ParsedExpression x) throws IOException {
+		_out.write(tag);
+		writeVarint(x.getChildren().size());
+	}
+
+	/**
+	 * Helper function for writeNode to write a tag followed by a length-prefixed array of bytes
+	 * @param tag the tag to write
+	 * @param bytes the bytes to write
+	 * @throws IOException if the stream fails
+	 */
+	private void writeBytes(int tag, byte[] bytes) throws IOException {
+		_out.write(tag);
+		writeVarint(bytes.length);
+		_out.write(bytes);
+	}
+
+	/**
+	 * Writes a non-negative number as an unsigned varint
+	 * @param value the number to write
+	 * @throws IOException if the stream fails
+	 */
+	private void writeVarint(long value) throws IOException {
+		while((value & ~0x7FL) != 0) {
+			_out.write((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		_out.write((int) value);
+	}
+
+	/**
+	 * Writes anything still buffered to the stream
+	 * @throws IOException if the stream fails
+	 */
+	public void flush() throws IOException {
+		_out.flush();
+	}
+
+	/**
+	 * Flushes and closes the stream
+	 * @throws IOException if the stream fails
+	 */
+	public void close() throws IOException {
+		_out.close();
+	}
+}
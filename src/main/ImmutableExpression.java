@@ -0,0 +1,362 @@
+package main;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent version of an expression tree. Nodes can never change once made and have no parent pointers,
+ * so any subtree can be shared between any number of trees: a "copy" is just another reference to the same node,
+ * and changing a tree makes a new tree that only has new nodes on the path from the change up to the root,
+ * sharing every other subtree with the old one. Reordering the children of a node k levels down therefore
+ * allocates O(k + number of children) instead of copying the whole tree.
+ * Two expressions are equal when they have the same structure; the structural hash is worked out once when a node is
+ * made, which lets an ExpressionInterner share identical subtrees cheaply.
+ * CachingExpressionParser keeps its trees this way. The editor doesn't use it, since it changes its trees in place.
+ */
+public final class ImmutableExpression {
+	/**
+	 * Total order on structures used to sort the children of canonical forms: by structural hash, and only if two different
+	 * structures have the same hash, by comparing them
+	 */
+	private static final Comparator<ImmutableExpression> STRUCTURE_ORDER = new Comparator<ImmutableExpression>() {
+		public int compare(ImmutableExpression a, ImmutableExpression b) {
+			return compareStructure(a, b);
+		}
+	};
+
+	final private String _name;
+	final private ImmutableExpression[] _children;
+	final private int _hash;
+
+	/**
+	 * Makes a node. The array is owned by the new node and must not be changed afterwards.
+	 * @param name the name of the node, either a literal or mathematical term
+	 * @param children the children of the node
+	 */
+	private ImmutableExpression(String name, ImmutableExpression[] children) {
+		_name = name;
+		_children = children;
+		int hash = name.hashCode();
+		for(int i = 0; i < children.length; i++) {
+			hash = 31*hash + children[i]._hash; //children's hashes are already worked out, so this is O(k)
+		}
+		_hash = hash;
+	}
+
+	/**
+	 * Makes a node
+	 * @param name the name of the node, either a literal or mathematical term
+	 * @param children the children of the node, in order
+	 * @return the new node
+	 */
+	public static ImmutableExpression of(String name, ImmutableExpression... children) {
+		return new ImmutableExpression(name, children.clone());
+	}
+
+	/**
+	 * Makes a persistent snapshot of an expression tree. This is O(n), but the snapshot can then be
+	 * shared and "copied" for free.
+	 * @param x the tree to snapshot
+	 * @return the persistent version of x
+	 */
+	public static ImmutableExpression of(Expression x) {
+		// nodes are built in post-order, so every node's children are already built and on top of the built stack
+		final Deque<ParsedExpression> postOrder = ParsedExpression.postOrder((ParsedExpression) x);
+		final ArrayDeque<ImmutableExpression> built = new ArrayDeque<ImmutableExpression>();
+		while(!postOrder.isEmpty()) {
+			final ParsedExpression current = postOrder.pop();
+			final ImmutableExpression[] children = new ImmutableExpression[current.getChildren().size()];
+			for(int i = children.length-1; i >= 0; i--) {
+				children[i] = built.pop();
+			}
+			built.push(new ImmutableExpression(current.getName(), children));
+		}
+		return built.pop();
+	}
+
+	/**
+	 * Makes the canonical form of an expression: a snapshot where the children of every sum and product are sorted into
+	 * a fixed order. Reordering the children of sums and products never changes what an expression means, and two
+	 * expressions have equal canonical forms exactly when one can be turned into the other by such reorderings, so
+	 * canonical forms can be kept in a HashSet or HashMap to find equivalent expressions without comparing trees pairwise.
+	 * Children are sorted by their structural hash, which every node already has, so this is O(n log n). Equal subtrees
+	 * are shared while the form is made, so sorting rarely has to look further than the hashes.
+	 * @param x the expression to canonicalize
+	 * @return the canonical form of x
+	 */
+	public static ImmutableExpression canonical(Expression x) {
+		final Map<ImmutableExpression, ImmutableExpression> shared = new HashMap<ImmutableExpression, ImmutableExpression>();
+		// built in post-order like of(Expression), sorting each node's children once they are all built
+		final Deque<ParsedExpression> postOrder = ParsedExpression.postOrder((ParsedExpression) x);
+		final ArrayDeque<ImmutableExpression> built = new ArrayDeque<ImmutableExpression>();
+		while(!postOrder.isEmpty()) {
+			final ParsedExpression current = postOrder.pop();
+			final ImmutableExpression[] children = new ImmutableExpression[current.getChildren().size()];
+			for(int i = children.length-1; i >= 0; i--) {
+				children[i] = built.pop();
+			}
+			built.push(canonicalNode(current.getName(), children, current.getKind() == ExpressionKind.SUM || current.getKind() == ExpressionKind.PRODUCT, shared));
+		}
+		return built.pop();
+	}
+
+	/**
+	 * Makes one node of a canonical form, for building canonical forms bottom up
+	 * @param name the name of the node
+	 * @param children the canonical forms of the node's children, which are sorted if the node is a sum or product;
+	 * the array is owned by the new node and must not be changed afterwards
+	 * @param commutative true if the node is a sum or product, so the children can be sorted
+	 * @param shared the canonical nodes made so far, so equal nodes are shared
+	 * @return the canonical node
+	 */
+	static ImmutableExpression canonicalNode(String name, ImmutableExpression[] children, boolean commutative, Map<ImmutableExpression, ImmutableExpression> shared) {
+		if(commutative) Arrays.sort(children, STRUCTURE_ORDER);
+		final ImmutableExpression node = new ImmutableExpression(name, children);
+		final ImmutableExpression existing = shared.get(node);
+		if(existing != null) return existing;
+		shared.put(node, node);
+		return node;
+	}
+
+	/**
+	 * Compares two structures, first by hash and then, for different structures with the same hash, by name, number
+	 * of children and then children in order
+	 * @param a the first structure
+	 * @param b the second structure
+	 * @return negative if a comes first, positive if b comes first, 0 if they have the same structure
+	 */
+	private static int compareStructure(ImmutableExpression a, ImmutableExpression b) {
+		// compared with an explicit stack of pairs, like equals, so deep trees can't overflow the call stack
+		final ArrayDeque<ImmutableExpression> toCompare = new ArrayDeque<ImmutableExpression>();
+		toCompare.push(a);
+		toCompare.push(b);
+		while(!toCompare.isEmpty()) {
+			final ImmutableExpression y = toCompare.pop();
+			final ImmutableExpression x = toCompare.pop();
+			if(x == y) continue;
+			if(x._hash != y._hash) return Integer.compare(x._hash, y._hash);
+			final int names = x._name.compareTo(y._name);
+			if(names != 0) return names;
+			if(x._children.length != y._children.length) return Integer.compare(x._children.length, y._children.length);
+			for(int i = x._children.length-1; i >= 0; i--) { //pushed backwards so the first children are compared first
+				toCompare.push(x._children[i]);
+				toCompare.push(y._children[i]);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Makes a new mutable expression tree with the same structure as this one
+	 * @return the root of the new tree
+	 */
+	public ParsedExpression toParsedExpression() {
+		final ParsedExpression root = new ParsedExpression(_name);
+		final ArrayDeque<ImmutableExpression> toCopy = new ArrayDeque<ImmutableExpression>();
+		final ArrayDeque<ParsedExpression> copyParents = new ArrayDeque<ParsedExpression>();
+		toCopy.push(this);
+		copyParents.push(root);
+		while(!toCopy.isEmpty()) {
+			final ImmutableExpression current = toCopy.pop();
+			final ParsedExpression copy = copyParents.pop();
+			for(int i = 0; i < current._children.length; i++) {
+				copy.addSubexpression(new ParsedExpression(current._children[i]._name));
+			}
+			for(int i = current._children.length-1; i >= 0; i--) {
+				toCopy.push(current._children[i]);
+				copyParents.push((ParsedExpression) copy.getChildren().get(i));
+			}
+		}
+		return root;
+	}
+
+	/**
+	 * Returns the name of this expression, so either a literal or mathematical term
+	 * @return the name of the expression
+	 */
+	public String getName() {
+		return _name;
+	}
+
+	/**
+	 * Returns how many children this expression has
+	 * @return the number of children
+	 */
+	public int getChildCount() {
+		return _children.length;
+	}
+
+	/**
+	 * Returns one of the children of this expression
+	 * @param index the index of the child
+	 * @return the child at index
+	 */
+	public ImmutableExpression getChild(int index) {
+		return _children[index];
+	}
+
+	/**
+	 * Returns the children of this expression
+	 * @return an unmodifiable list of the children
+	 */
+	public List<ImmutableExpression> getChildren() {
+		return Collections.unmodifiableList(Arrays.asList(_children));
+	}
+
+	/**
+	 * Lists the nodes of a tree in post-order, like ParsedExpression.postOrder: children come left to right, and each
+	 * node comes after its children. Shared subtrees are listed once for every place they appear.
+	 * @param root the top of the tree
+	 * @return the nodes of the tree, in post-order when iterated or popped
+	 */
+	static Deque<ImmutableExpression> postOrder(ImmutableExpression root) {
+		final ArrayDeque<ImmutableExpression> toVisit = new ArrayDeque<ImmutableExpression>();
+		final ArrayDeque<ImmutableExpression> postOrder = new ArrayDeque<ImmutableExpression>();
+		toVisit.push(root);
+		while(!toVisit.isEmpty()) {
+			final ImmutableExpression current = toVisit.pop();
+			postOrder.push(current);
+			for(ImmutableExpression child : current._children) {
+				toVisit.push(child);
+			}
+		}
+		return postOrder;
+	}
+
+	/**
+	 * Makes a version of this expression with one child replaced. The other children are shared.
+	 * @param index the index of the child to replace
+	 * @param child the new child
+	 * @return the new expression
+	 */
+	public ImmutableExpression withChild(int index, ImmutableExpression child) {
+		final ImmutableExpression[] children = _children.clone();
+		children[index] = child;
+		return new ImmutableExpression(_name, children);
+	}
+
+	/**
+	 * Makes a version of this expression with one child moved to another position, shifting the children in between over by one.
+	 * The children themselves are shared.
+	 * @param from the current index of the child
+	 * @param to the index the child should end up at
+	 * @return the new expression
+	 */
+	public ImmutableExpression moveChild(int from, int to) {
+		final ImmutableExpression[] children = _children.clone();
+		final ImmutableExpression moving = children[from];
+		if(from < to) System.arraycopy(children, from+1, children, from, to-from);
+		else System.arraycopy(children, to, children, to+1, from-to);
+		children[to] = moving;
+		return new ImmutableExpression(_name, children);
+	}
+
+	/**
+	 * Returns the expression at the end of an index-path, where each index picks a child of the previous expression
+	 * @param path the indices to follow from this expression
+	 * @return the expression at the end of the path
+	 */
+	public ImmutableExpression get(int[] path) {
+		ImmutableExpression current = this;
+		for(int i = 0; i < path.length; i++) {
+			current = current._children[path[i]];
+		}
+		return current;
+	}
+
+	/**
+	 * Makes a version of this tree with the expression at the end of an index-path replaced. Only the nodes on the path
+	 * are copied, everything else is shared with this tree.
+	 * @param path the indices to follow from this expression
+	 * @param replacement the expression to put at the end of the path
+	 * @return the root of the new tree
+	 */
+	public ImmutableExpression replace(int[] path, ImmutableExpression replacement) {
+		final ImmutableExpression[] onPath = new ImmutableExpression[path.length];
+		ImmutableExpression current = this;
+		for(int i = 0; i < path.length; i++) {
+			onPath[i] = current;
+			current = current._children[path[i]];
+		}
+		// rebuild the path from the bottom up
+		ImmutableExpression replaced = replacement;
+		for(int i = path.length-1; i >= 0; i--) {
+			replaced = onPath[i].withChild(path[i], replaced);
+		}
+		return replaced;
+	}
+
+	/**
+	 * Makes a version of this tree where one expression's children are reordered by moving one of them
+	 * @param pathToParent the indices to follow from this expression to the expression whose children move
+	 * @param from the current index of the child
+	 * @param to the index the child should end up at
+	 * @return the root of the new tree
+	 */
+	public ImmutableExpression moveChild(int[] pathToParent, int from, int to) {
+		return replace(pathToParent, get(pathToParent).moveChild(from, to));
+	}
+
+	@Override
+	public int hashCode() {
+		return _hash;
+	}
+
+	/**
+	 * Checks if an object is an ImmutableExpression with the same structure as this one, meaning the same names
+	 * and the same children in the same order. Shared subtrees are only compared once, by identity.
+	 * @param o the object to compare to
+	 * @return true if the structures are the same, false otherwise
+	 */
+	@Override
+	public boolean equals(Object o) {
+		if(this == o) return true;
+		if(!(o instanceof ImmutableExpression)) return false;
+		// compared with an explicit stack of pairs, so deep trees can't overflow the call stack
+		final ArrayDeque<ImmutableExpression> toCompare = new ArrayDeque<ImmutableExpression>();
+		toCompare.push(this);
+		toCompare.push((ImmutableExpression) o);
+		while(!toCompare.isEmpty()) {
+			final ImmutableExpression a = toCompare.pop();
+			final ImmutableExpression b = toCompare.pop();
+			if(a == b) continue;
+			if(a._hash != b._hash || a._children.length != b._children.length || !a._name.equals(b._name)) return false;
+			for(int i = 0; i < a._children.length; i++) {
+				toCompare.push(a._children[i]);
+				toCompare.push(b._children[i]);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Creates a String representation by printing out (using indentation) the tree represented by this expression,
+	 * in the same format as Expression.convertToString
+	 * @param indentLevel the indentation level (number of tabs from the left margin) at which to start
+	 * @return a String representation of the expression tree.
+	 */
+	public String convertToString(int indentLevel) {
+		final StringBuffer sb = new StringBuffer();
+		final ArrayDeque<ImmutableExpression> toPrint = new ArrayDeque<ImmutableExpression>();
+		final ArrayDeque<Integer> indents = new ArrayDeque<Integer>();
+		toPrint.push(this);
+		indents.push(indentLevel);
+		while(!toPrint.isEmpty()) {
+			final ImmutableExpression current = toPrint.pop();
+			final int indent = indents.pop();
+			Expression.indent(sb, indent);
+			sb.append(current._name).append('\n');
+			for(int i = current._children.length-1; i >= 0; i--) { //pushed backwards so they are printed in order
+				toPrint.push(current._children[i]);
+				indents.push(indent+1);
+			}
+		}
+		return sb.toString();
+	}
+}
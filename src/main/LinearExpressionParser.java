@@ -0,0 +1,430 @@
+package main;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ExpressionParser that reads the input exactly once, left to right, and builds the flattened
+ * n-ary expression tree as it goes. It accepts the same grammar as SimpleExpressionParser:
+ * E := A | X
+ * A := A+M | M
+ * M := M*M | X
+ * X := (E) | L
+ * L := [0-9]+ | [a-z]
+ * Every character is looked at a constant number of times, so parsing is O(n) in the length of the input,
+ * and no substrings are made of the input while parsing. Nesting is tracked on a heap-allocated stack
+ * rather than the call stack, so deeply parenthesized input does not overflow the thread's stack. Besides Strings, input can be a range of any
+ * CharSequence or a Reader/ReadableByteChannel that is streamed through a small fixed-size buffer,
+ * so very large expressions never need to be held in memory as text.
+ * The parser only decides the shape of the tree; the nodes themselves are made by a Nodes, so the same single pass
+ * can build a mutable tree or an interned persistent one.
+ */
+public class LinearExpressionParser implements ExpressionParser {
+	/**
+	 * Attempts to create an expression tree -- flattened as much as possible -- from the specified String.
+	 * Throws a ExpressionParseException if the specified string cannot be parsed.
+	 * @param str the string to parse into an expression tree
+	 * @param withJavaFXControls whether to create JavaFX GUI objects for the expression tree
+	 * @return the Expression object representing the parsed expression tree
+	 */
+	public Expression parse (String str, boolean withJavaFXControls) throws ExpressionParseException {
+		return parse(str, 0, str.length(), withJavaFXControls);
+	}
+
+	/**
+	 * Attempts to create an expression tree from the characters of str in [offset, offset+length).
+	 * The characters are read in place, the sequence is never copied.
+	 * Throws a ExpressionParseException if the characters cannot be parsed.
+	 * @param str the sequence containing the expression
+	 * @param offset the index of the first character of the expression
+	 * @param length the number of characters in the expression
+	 * @param withJavaFXControls whether to create JavaFX GUI objects for the expression tree
+	 * @return the Expression object representing the parsed expression tree
+	 */
+	public Expression parse (CharSequence str, int offset, int length, boolean withJavaFXControls) throws ExpressionParseException {
+		if(offset < 0 || length < 0 || offset > str.length() - length) {
+			throw new IndexOutOfBoundsException("offset " + offset + ", length " + length + ", size " + str.length());
+		}
+		final Expression expression = parseAll(new CharSequenceCursor(str, offset, offset + length));
+		if(expression == null) {
+			// If we couldn't parse the whole string, then raise an error
+			throw new ExpressionParseException("Cannot parse expression: " + str.subSequence(offset, offset + length).toString().replace(" ", ""));
+		}
+		return expression;
+	}
+
+	/**
+	 * Attempts to create an expression tree from everything left in the reader. The reader is read
+	 * through a fixed-size buffer, so the text of the expression is never held in memory all at once.
+	 * The reader is not closed.
+	 * Throws a ExpressionParseException if the text cannot be parsed.
+	 * @param reader the reader to read the expression from
+	 * @param withJavaFXControls whether to create JavaFX GUI objects for the expression tree
+	 * @return the Expression object representing the parsed expression tree
+	 * @throws IOException if the reader fails
+	 */
+	public Expression parse (Reader reader, boolean withJavaFXControls) throws IOException, ExpressionParseException {
+		final ReaderCursor cursor;
+		final Expression expression;
+		try {
+			cursor = new ReaderCursor(reader);
+			expression = parseAll(cursor);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		if(expression == null) {
+			throw new ExpressionParseException("Cannot parse expression: unexpected "
+					+ (cursor.peek() == Cursor.END ? "end of input" : "'" + (char) cursor.peek() + "'")
+					+ " at character " + cursor.position());
+		}
+		return expression;
+	}
+
+	/**
+	 * Attempts to create an expression tree from the UTF-8 text left in the channel, streaming it the same way
+	 * as parse(Reader, boolean). The channel is not closed.
+	 * @param channel the channel to read the expression from
+	 * @param withJavaFXControls whether to create JavaFX GUI objects for the expression tree
+	 * @return the Expression object representing the parsed expression tree
+	 * @throws IOException if the channel fails
+	 */
+	public Expression parse (ReadableByteChannel channel, boolean withJavaFXControls) throws IOException, ExpressionParseException {
+		return parse(Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder(), -1), withJavaFXControls);
+	}
+
+	/**
+	 * Interning mode: parses an expression straight into hash-consed nodes, so that its repeated subterms, and any
+	 * subterms it has in common with expressions already interned, are shared instead of copied. Every node is interned
+	 * as soon as its children are, so no mutable tree is made along the way.
+	 * Throws a ExpressionParseException if the characters cannot be parsed.
+	 * @param str the expression to parse
+	 * @param interner the interner that holds the shared subterms
+	 * @return the interned expression tree
+	 */
+	public ImmutableExpression parseInterned (CharSequence str, ExpressionInterner interner) throws ExpressionParseException {
+		final ExpressionMetrics.Timer timer = ExpressionMetrics.start(ExpressionMetrics.Operation.PARSE);
+		final ImmutableExpression expression = parseTree(new CharSequenceCursor(str, 0, str.length()), new InternedNodes(interner));
+		if(expression == null) {
+			throw new ExpressionParseException("Cannot parse expression: " + str.toString().replace(" ", ""));
+		}
+		timer.stop(0); //the nodes are shared, so there is no tree of its own to count
+		return expression;
+	}
+
+	/**
+	 * Parses the whole input of a cursor, measuring it as a PARSE operation
+	 * @param cursor the input to parse
+	 * @return the parsed expression, null if the input is not a valid expression
+	 */
+	private Expression parseAll(Cursor cursor) {
+		final ExpressionMetrics.Timer timer = ExpressionMetrics.start(ExpressionMetrics.Operation.PARSE);
+		final Expression expression = parseTree(cursor, ParsedNodes.INSTANCE);
+		timer.stop(expression);
+		return expression;
+	}
+
+	/**
+	 * Helper function for parseAll that does the parsing. Instead of recursing once per level of parentheses, each open
+	 * parenthesis pushes a Frame onto a heap-allocated stack, so nesting depth is only limited by the heap.
+	 * @param cursor the input to parse
+	 * @param nodes makes the nodes of the tree
+	 * @return the parsed expression, null if the input is not a valid expression
+	 */
+	private <T> T parseTree(Cursor cursor, Nodes<T> nodes) {
+		final ArrayDeque<Frame<T>> frames = new ArrayDeque<Frame<T>>();
+		Frame<T> frame = new Frame<T>(nodes);
+		while(true) {
+			// X := (E) | L
+			int c = cursor.peek();
+			while(c == '(') { //every open paren starts a new E
+				frames.push(frame);
+				frame = new Frame<T>(nodes);
+				cursor.advance();
+				c = cursor.peek();
+			}
+			T factor;
+			if(c >= '0' && c <= '9') {
+				final StringBuilder digits = new StringBuilder();
+				while(cursor.peek() >= '0' && cursor.peek() <= '9') {
+					digits.append((char) cursor.peek());
+					cursor.advance();
+				}
+				factor = nodes.leaf(digits.toString());
+			}
+			else if(c != Cursor.END && Character.isLetter(c)) {
+				cursor.advance();
+				factor = nodes.leaf(String.valueOf((char) c));
+			}
+			else return null;
+			frame.addFactor(factor);
+			// close as many parens as there are right after the factor
+			while(cursor.peek() == ')') {
+				if(frames.isEmpty()) return null;
+				cursor.advance();
+				factor = nodes.parenthesize(frame.finish());
+				frame = frames.pop();
+				frame.addFactor(factor);
+			}
+			c = cursor.peek();
+			if(c == '+') frame.endTerm(); // A := A+M
+			else if(c != '*') { // M := M*M
+				if(c != Cursor.END || !frames.isEmpty()) return null;
+				return frame.finish();
+			}
+			cursor.advance();
+		}
+	}
+
+	/**
+	 * Makes the nodes of the tree being parsed. Children are always made before their parents.
+	 */
+	private interface Nodes<T> {
+		/**
+		 * Makes a literal
+		 * @param name the text of the literal
+		 * @return the literal
+		 */
+		T leaf(String name);
+
+		/**
+		 * Makes a sum or product
+		 * @param name + or *
+		 * @param children the children in order, at least two; the list is reused once this returns
+		 * @return the sum or product
+		 */
+		T operator(String name, List<T> children);
+
+		/**
+		 * Wraps an expression in a () node. Directly nested parentheses like ((x)) collapse into a single () node,
+		 * the same way flatten() merges them.
+		 * @param inner the expression inside the parentheses
+		 * @return the parenthesized expression
+		 */
+		T parenthesize(T inner);
+	}
+
+	/**
+	 * Makes a mutable ParsedExpression tree
+	 */
+	private static class ParsedNodes implements Nodes<Expression> {
+		static final ParsedNodes INSTANCE = new ParsedNodes();
+
+		public Expression leaf(String name) {
+			return new ParsedExpression(name);
+		}
+
+		public Expression operator(String name, List<Expression> children) {
+			final ParsedExpression x = new ParsedExpression(name);
+			for(int i = 0; i < children.size(); i++) {
+				x.addSubexpression(children.get(i));
+			}
+			return x;
+		}
+
+		public Expression parenthesize(Expression inner) {
+			if(((ParsedExpression) inner).getKind() == ExpressionKind.PARENTHESIZED) return inner;
+			final ParsedExpression paren = new ParsedExpression("()");
+			paren.addSubexpression(inner);
+			return paren;
+		}
+	}
+
+	/**
+	 * Makes interned ImmutableExpression nodes, each looked up in the interner as soon as it is made
+	 */
+	private static class InternedNodes implements Nodes<ImmutableExpression> {
+		final private ExpressionInterner _interner;
+
+		InternedNodes(ExpressionInterner interner) {
+			_interner = interner;
+		}
+
+		public ImmutableExpression leaf(String name) {
+			return _interner.internNode(ImmutableExpression.of(name));
+		}
+
+		public ImmutableExpression operator(String name, List<ImmutableExpression> children) {
+			return _interner.internNode(ImmutableExpression.of(name, children.toArray(new ImmutableExpression[children.size()])));
+		}
+
+		public ImmutableExpression parenthesize(ImmutableExpression inner) {
+			if(inner.getName().equals("()")) return inner;
+			return _interner.internNode(ImmutableExpression.of("()", inner));
+		}
+	}
+
+	/**
+	 * The sum being built for one E, either the whole input or the inside of a pair of parentheses.
+	 * The n-ary + and * nodes are only made once all their terms or factors are in, so an interned node is
+	 * never changed after it is made.
+	 */
+	private static class Frame<T> {
+		final private Nodes<T> _nodes;
+		private T _firstTerm;
+		private List<T> _terms;
+		private T _firstFactor;
+		private List<T> _factors;
+
+		Frame(Nodes<T> nodes) {
+			_nodes = nodes;
+		}
+
+		/**
+		 * Adds a factor to the current term
+		 * @param factor the factor to add
+		 */
+		void addFactor(T factor) {
+			if(_firstFactor == null) _firstFactor = factor;
+			else {
+				if(_factors == null) _factors = new ArrayList<T>();
+				if(_factors.isEmpty()) _factors.add(_firstFactor);
+				_factors.add(factor);
+			}
+		}
+
+		/**
+		 * Adds the current term to the sum and starts a new one
+		 */
+		void endTerm() {
+			final T term;
+			if(_factors == null || _factors.isEmpty()) term = _firstFactor;
+			else {
+				term = _nodes.operator("*", _factors);
+				_factors.clear(); //kept for the next term
+			}
+			_firstFactor = null;
+			if(_firstTerm == null) _firstTerm = term;
+			else {
+				if(_terms == null) {
+					_terms = new ArrayList<T>();
+					_terms.add(_firstTerm);
+				}
+				_terms.add(term);
+			}
+		}
+
+		/**
+		 * Ends the last term and returns the whole sum
+		 * @return the expression for this E
+		 */
+		T finish() {
+			endTerm();
+			return _terms == null ? _firstTerm : _nodes.operator("+", _terms);
+		}
+	}
+
+	/**
+	 * Read position in the input being parsed. Spaces are skipped wherever they are,
+	 * which is the same as removing them all before parsing.
+	 */
+	private abstract static class Cursor {
+		/**
+		 * Returned by peek() once the whole input has been read
+		 */
+		static final int END = -1;
+
+		private int _current;
+		private long _position;
+
+		/**
+		 * Reads the first character. Must be called by subclasses once they are ready to read.
+		 */
+		final void start() {
+			_position = -1;
+			advance();
+		}
+
+		/**
+		 * Returns the current character without consuming it
+		 * @return the current character, or END if there are none left
+		 */
+		final int peek() {
+			return _current;
+		}
+
+		/**
+		 * Consumes the current character
+		 */
+		final void advance() {
+			do {
+				_current = read();
+				_position++;
+			} while(_current == ' ');
+		}
+
+		/**
+		 * Returns how many characters come before the current one, counting spaces
+		 * @return the index of the current character in the input
+		 */
+		final long position() {
+			return _position;
+		}
+
+		/**
+		 * Reads the next raw character of the input
+		 * @return the next character, or END if there are none left
+		 */
+		abstract int read();
+	}
+
+	/**
+	 * Cursor over a range of a CharSequence
+	 */
+	private static class CharSequenceCursor extends Cursor {
+		final private CharSequence _str;
+		final private int _end;
+		private int _pos;
+
+		CharSequenceCursor(CharSequence str, int start, int end) {
+			_str = str;
+			_pos = start;
+			_end = end;
+			start();
+		}
+
+		int read() {
+			return _pos < _end ? _str.charAt(_pos++) : END;
+		}
+	}
+
+	/**
+	 * Cursor over a Reader, filling a fixed-size buffer as it goes. IOExceptions are rethrown as
+	 * UncheckedIOExceptions so they can pass through the parsing methods.
+	 */
+	private static class ReaderCursor extends Cursor {
+		final private Reader _reader;
+		final private char[] _buffer;
+		private int _pos;
+		private int _count;
+
+		ReaderCursor(Reader reader) {
+			_reader = reader;
+			_buffer = new char[8192];
+			start();
+		}
+
+		int read() {
+			if(_pos == _count) {
+				if(_count == END) return END;
+				try {
+					_count = _reader.read(_buffer);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				_pos = 0;
+				if(_count <= 0) {
+					_count = END; //remember that the reader is done so it isn't read again
+					return END;
+				}
+			}
+			return _buffer[_pos++];
+		}
+	}
+}
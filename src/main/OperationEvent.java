@@ -0,0 +1,23 @@
+package main;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for one measured operation, see ExpressionMetrics. It is recorded whenever a flight recording is running,
+ * for example one started with -XX:StartFlightRecording or jcmd JFR.start.
+ */
+@Name("main.ExpressionOperation")
+@Label("Expression Operation")
+@Category("Expression Editor")
+@Description("Parsing, a tree operation or a phase of dragging in the expression editor")
+class OperationEvent extends Event {
+	@Label("Operation")
+	String operation;
+
+	@Label("Node Count")
+	int nodeCount;
+}
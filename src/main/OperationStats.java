@@ -0,0 +1,116 @@
+package main;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics of one measured operation. Recording is lock-free, so operations on several threads don't wait on each other.
+ */
+class OperationStats implements OperationStatsMXBean {
+	/**
+	 * Number of histogram buckets, enough for operations of up to 2^40 nanoseconds, about 18 minutes
+	 */
+	private static final int BUCKETS = 40;
+
+	final private LongAdder _count = new LongAdder();
+	final private LongAdder _totalNanos = new LongAdder();
+	final private AtomicLong _maxNanos = new AtomicLong();
+	final private AtomicLongArray _histogram = new AtomicLongArray(BUCKETS);
+	final private LongAdder _totalNodeCount = new LongAdder();
+	final private AtomicLong _maxNodeCount = new AtomicLong();
+	private volatile int _lastNodeCount;
+
+	/**
+	 * Records one operation
+	 * @param nanos how long it took
+	 * @param nodeCount how many nodes it worked on
+	 */
+	void record(long nanos, int nodeCount) {
+		_count.increment();
+		_totalNanos.add(nanos);
+		_maxNanos.accumulateAndGet(nanos, Math::max);
+		_histogram.incrementAndGet(Math.min(BUCKETS-1, 63 - Long.numberOfLeadingZeros(Math.max(1, nanos))));
+		_totalNodeCount.add(nodeCount);
+		_maxNodeCount.accumulateAndGet(nodeCount, Math::max);
+		_lastNodeCount = nodeCount;
+	}
+
+	public long getCount() {
+		return _count.sum();
+	}
+
+	public long getTotalNanos() {
+		return _totalNanos.sum();
+	}
+
+	public double getMeanNanos() {
+		final long count = getCount();
+		return count == 0 ? 0 : (double) getTotalNanos() / count;
+	}
+
+	public long getMaxNanos() {
+		return _maxNanos.get();
+	}
+
+	public long getMedianNanos() {
+		return percentile(0.5);
+	}
+
+	public long getPercentile99Nanos() {
+		return percentile(0.99);
+	}
+
+	/**
+	 * Helper function to estimate a percentile from the histogram
+	 * @param fraction the fraction of operations that should be quicker, between 0 and 1
+	 * @return the upper end of the bucket the percentile falls in, 0 if nothing was measured
+	 */
+	private long percentile(double fraction) {
+		final long[] histogram = getLatencyHistogram();
+		long total = 0;
+		for(int i = 0; i < histogram.length; i++) {
+			total += histogram[i];
+		}
+		if(total == 0) return 0;
+		final long rank = (long) Math.ceil(fraction * total);
+		long seen = 0;
+		for(int i = 0; i < histogram.length; i++) {
+			seen += histogram[i];
+			if(seen >= rank) return 1L << (i+1);
+		}
+		return 1L << BUCKETS;
+	}
+
+	public long[] getLatencyHistogram() {
+		final long[] histogram = new long[BUCKETS];
+		for(int i = 0; i < BUCKETS; i++) {
+			histogram[i] = _histogram.get(i);
+		}
+		return histogram;
+	}
+
+	public int getLastNodeCount() {
+		return _lastNodeCount;
+	}
+
+	public int getMaxNodeCount() {
+		return (int) _maxNodeCount.get();
+	}
+
+	public long getTotalNodeCount() {
+		return _totalNodeCount.sum();
+	}
+
+	public void reset() {
+		_count.reset();
+		_totalNanos.reset();
+		_maxNanos.set(0);
+		for(int i = 0; i < BUCKETS; i++) {
+			_histogram.set(i, 0);
+		}
+		_totalNodeCount.reset();
+		_maxNodeCount.set(0);
+		_lastNodeCount = 0;
+	}
+}
@@ -0,0 +1,73 @@
+package main;
+
+/**
+ * Management interface for the metrics of one measured operation, registered as main:type=ExpressionMetrics,operation=name.
+ * Latencies are in nanoseconds. The histogram has one bucket per power of two: bucket i counts the operations that took
+ * at least 2^i and less than 2^(i+1) nanoseconds, and percentiles are the upper end of the bucket they fall in.
+ */
+public interface OperationStatsMXBean {
+	/**
+	 * Returns how many times the operation was measured
+	 * @return the number of operations
+	 */
+	long getCount();
+
+	/**
+	 * Returns how long all the measured operations took together
+	 * @return the total time in nanoseconds
+	 */
+	long getTotalNanos();
+
+	/**
+	 * Returns how long an operation took on average
+	 * @return the mean time in nanoseconds, 0 if nothing was measured
+	 */
+	double getMeanNanos();
+
+	/**
+	 * Returns how long the slowest operation took
+	 * @return the longest time in nanoseconds
+	 */
+	long getMaxNanos();
+
+	/**
+	 * Returns the time half the operations were quicker than
+	 * @return the median time in nanoseconds, rounded up to a power of two
+	 */
+	long getMedianNanos();
+
+	/**
+	 * Returns the time 99% of the operations were quicker than
+	 * @return the 99th percentile in nanoseconds, rounded up to a power of two
+	 */
+	long getPercentile99Nanos();
+
+	/**
+	 * Returns the latency histogram
+	 * @return the number of operations in each power of two bucket
+	 */
+	long[] getLatencyHistogram();
+
+	/**
+	 * Returns the number of nodes the latest operation worked on
+	 * @return the number of nodes
+	 */
+	int getLastNodeCount();
+
+	/**
+	 * Returns the largest number of nodes an operation worked on
+	 * @return the number of nodes
+	 */
+	int getMaxNodeCount();
+
+	/**
+	 * Returns the total number of nodes the operations worked on
+	 * @return the number of nodes
+	 */
+	long getTotalNodeCount();
+
+	/**
+	 * Throws away everything collected so far for this operation
+	 */
+	void reset();
+}
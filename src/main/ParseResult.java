@@ -0,0 +1,67 @@
+package main;
+
+/**
+ * The outcome of parsing one expression in a batch: either the parsed expression or the
+ * ExpressionParseException explaining why it could not be parsed.
+ */
+public class ParseResult {
+	final private Expression _expression;
+	final private ExpressionParseException _exception;
+
+	private ParseResult(Expression expression, ExpressionParseException exception) {
+		_expression = expression;
+		_exception = exception;
+	}
+
+	/**
+	 * Makes the result of a successful parse
+	 * @param expression the parsed expression
+	 * @return a successful result
+	 */
+	public static ParseResult success(Expression expression) {
+		return new ParseResult(expression, null);
+	}
+
+	/**
+	 * Makes the result of a failed parse
+	 * @param exception the reason the parse failed
+	 * @return a failed result
+	 */
+	public static ParseResult failure(ExpressionParseException exception) {
+		return new ParseResult(null, exception);
+	}
+
+	/**
+	 * Function to check if the expression was parsed
+	 * @return true if the expression was parsed, false otherwise
+	 */
+	public boolean isSuccess() {
+		return _exception == null;
+	}
+
+	/**
+	 * Returns the parsed expression
+	 * @return the parsed expression, null if the parse failed
+	 */
+	public Expression getExpression() {
+		return _expression;
+	}
+
+	/**
+	 * Returns the reason the parse failed
+	 * @return the exception thrown by the parser, null if the parse succeeded
+	 */
+	public ExpressionParseException getException() {
+		return _exception;
+	}
+
+	/**
+	 * Returns the parsed expression, or throws the exception if the parse failed
+	 * @return the parsed expression
+	 * @throws ExpressionParseException if the parse failed
+	 */
+	public Expression get() throws ExpressionParseException {
+		if(_exception != null) throw _exception;
+		return _expression;
+	}
+}
@@ -1,21 +1,15 @@
 package main;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-
-import javafx.geometry.Bounds;
-import javafx.scene.Node;
-import javafx.scene.Parent;
-import javafx.scene.Scene;
-import javafx.scene.control.Label;
-import javafx.scene.layout.BorderPane;
-import javafx.scene.layout.HBox;
-import javafx.scene.layout.Pane;
-import javafx.scene.paint.Color;
-import javafx.scene.paint.Paint;
-import javafx.scene.text.Font;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 
 /**
  * Class to hold data from a parsed mathematical expression.
@@ -26,18 +20,81 @@ public class ParsedExpression implements CompoundExpression{
 	private List<Expression> _children;
 	private CompoundExpression _parent;
 	final private String _name;
-	private HBox _node;
-	final private List<Label> _labelList;
-	private boolean isFocused;
-	private int identifier;
+	final private ExpressionKind _kind;
+	final private long _value;
+	private ExpressionListener _listener;
+	private long identifier;
+	private int _indexHint; //where this expression last was among its parent's children, checked before it is trusted
+
+	/**
+	 * Source of identifiers, shared by every thread, so identifiers never collide and always increase in the order
+	 * expressions are made
+	 */
+	private static final AtomicLong nextIdentifier = new AtomicLong(1);
+
+	/**
+	 * Stored as the value of integer literals too big to fit in a long. Literals are never negative, so it can't be a real value.
+	 */
+	private static final long TOO_BIG = -1;
 	
+	/**
+	 * Makes an expression with no children
+	 * @param name the name of the expression: +, *, (), a string of digits or a single letter
+	 * @throws IllegalArgumentException if name is none of those
+	 */
 	public ParsedExpression(String name) {
 		_parent = null;
 		_children = new ArrayList<Expression>();
 		_name = name;
-		_node = null;
-		_labelList = new ArrayList<Label>();
-		identifier = (int)(Math.random()*Integer.MAX_VALUE)  +1;
+		_kind = ExpressionKind.of(name);
+		_value = _kind == ExpressionKind.INTEGER_LITERAL ? parseValue(name) : 0;
+		_listener = null;
+		identifier = nextIdentifier();
+	}
+
+	/**
+	 * Makes an expression whose kind has already been worked out, for readers that store the kind instead of the name
+	 * @param name the name of the expression
+	 * @param kind the kind of the expression, which must be the kind of name
+	 * @param value the value of an integer literal, which must fit in a long, 0 for other kinds
+	 */
+	ParsedExpression(String name, ExpressionKind kind, long value) {
+		_parent = null;
+		_children = new ArrayList<Expression>();
+		_name = name;
+		_kind = kind;
+		_value = value;
+		_listener = null;
+		identifier = nextIdentifier();
+	}
+
+	/**
+	 * Makes an expression with the same name, kind, value and identifier as another one, but no children or parent
+	 * @param x the expression to copy
+	 */
+	private ParsedExpression(ParsedExpression x) {
+		_parent = null;
+		_children = new ArrayList<Expression>(x._children.size());
+		_name = x._name;
+		_kind = x._kind;
+		_value = x._value;
+		_listener = null;
+		identifier = x.identifier;
+	}
+
+	/**
+	 * Helper function for the constructor to work out the value of an integer literal, without going through exceptions
+	 * @param digits the digits of the literal
+	 * @return the value of the literal, or TOO_BIG if it doesn't fit in a long
+	 */
+	private static long parseValue(String digits) {
+		long value = 0;
+		for(int i = 0; i < digits.length(); i++) {
+			final int digit = digits.charAt(i) - '0';
+			if(value > (Long.MAX_VALUE - digit) / 10) return TOO_BIG;
+			value = value*10 + digit;
+		}
+		return value;
 	}
 
 	public CompoundExpression getParent() {
@@ -49,40 +106,179 @@ public class ParsedExpression implements CompoundExpression{
 	}
 
 	public Expression deepCopy() {
-		final CompoundExpression end = new ParsedExpression(new String(_name));
-		((ParsedExpression)end).setIdentifier(this.identifier);
-		if(_children.size() == 0) return end;
-		for(int i = 0; i < _children.size(); i++) {
-			final Expression child = ((ParsedExpression) _children.get(i)).deepCopy();//recursively copy down the tree
-			end.addSubexpression(child);
+		final ExpressionMetrics.Timer timer = ExpressionMetrics.start(ExpressionMetrics.Operation.DEEP_COPY);
+		final ParsedExpression end = copyNode(this);
+		// copies are made in depth-first order from an explicit stack, so deep trees can't overflow the call stack
+		final ArrayDeque<ParsedExpression> toCopy = new ArrayDeque<ParsedExpression>();
+		final ArrayDeque<ParsedExpression> copyParents = new ArrayDeque<ParsedExpression>();
+		pushChildren(this, end, toCopy, copyParents);
+		while(!toCopy.isEmpty()) {
+			final ParsedExpression current = toCopy.pop();
+			final ParsedExpression copy = copyNode(current);
+			copyParents.pop().addSubexpression(copy);
+			pushChildren(current, copy, toCopy, copyParents);
 		}
+		timer.stop(end);
 		return end;
 	}
 
+	/**
+	 * Helper function for deepCopy to copy a single node, without its children
+	 * @param x the node to copy
+	 * @return a childless node with the same name and identifier as x
+	 */
+	private static ParsedExpression copyNode(ParsedExpression x) {
+		return new ParsedExpression(x); //the kind and value are copied, not worked out from the name again
+	}
+
+	/**
+	 * Helper function for deepCopy to push the children of a node onto the copy stack, last child first
+	 * so that they are popped, and therefore added to the copy, in their original order
+	 * @param x the node whose children need copying
+	 * @param copy the copy of x, which the copied children are added to
+	 * @param toCopy the stack of nodes to copy
+	 * @param copyParents the stack of copies the nodes in toCopy are added to
+	 */
+	private static void pushChildren(ParsedExpression x, ParsedExpression copy, ArrayDeque<ParsedExpression> toCopy, ArrayDeque<ParsedExpression> copyParents) {
+		for(int i = x._children.size()-1; i >= 0; i--) {
+			toCopy.push((ParsedExpression) x._children.get(i));
+			copyParents.push(copy);
+		}
+	}
+
 	public void flatten() {
-		for(int i = 0; i < _children.size(); i++) {
-			final ParsedExpression current = (ParsedExpression)_children.get(i);
-			if(current.getName().equals(getName())) { //if you have two of the same expressions
-				final List<Expression> currChild = current.getChildren();
-				for(int a = 0; a < currChild.size(); a++) {
-					this.addSubexpression(currChild.get(a));
-				}
-				_children.remove(current);
-				i--;
+		final ExpressionMetrics.Timer timer = ExpressionMetrics.start(ExpressionMetrics.Operation.FLATTEN);
+		// parents are flattened before their children, the same order as recursing down the tree but using a heap-allocated stack
+		final ArrayDeque<ParsedExpression> toFlatten = new ArrayDeque<ParsedExpression>();
+		toFlatten.push(this);
+		while(!toFlatten.isEmpty()) {
+			final ParsedExpression x = toFlatten.pop();
+			if(x.hasChildOfKind(x._kind)) x.mergeChildren();
+			for(Expression child: x._children) {
+				toFlatten.push((ParsedExpression) child);
 			}
 		}
-		for(Expression x: _children) {
-			x.flatten(); //recursively flatten down the list
+		//the loop ends once every node has been popped, leaves have no children to push.
+		timer.stop(this);
+	}
+
+	/**
+	 * Helper function for flatten to check if any child is of a certain kind
+	 * @param kind the kind to look for
+	 * @return true if a child is of that kind, false otherwise
+	 */
+	private boolean hasChildOfKind(ExpressionKind kind) {
+		for(int i = 0; i < _children.size(); i++) {
+			if(((ParsedExpression) _children.get(i))._kind == kind) return true;
 		}
-		//base case is when something has no children, as then the for loops don't run.
+		return false;
+	}
+
+	/**
+	 * Helper function for flatten to replace every child of the same type as this expression by that child's own children.
+	 * The children that get moved up are looked at again, in case they are of the same type too. Going through the children
+	 * as a queue gives them the same order as appending each merged child's children to the end of the list and removing
+	 * the merged child, but looks at every child once instead of searching and shifting the list for every merge.
+	 */
+	private void mergeChildren() {
+		final ArrayDeque<Expression> toMerge = new ArrayDeque<Expression>(_children);
+		final List<Expression> merged = new ArrayList<Expression>(_children.size());
+		while(!toMerge.isEmpty()) {
+			final ParsedExpression current = (ParsedExpression) toMerge.poll();
+			if(current._kind == _kind) { //if you have two of the same expressions
+				toMerge.addAll(current._children);
+			}
+			else {
+				current._indexHint = merged.size();
+				merged.add(current);
+				current.setParent(this);
+			}
+		}
+		_children = merged;
 	}
 
 	public String convertToString(int indentLevel) {
-		final StringBuffer sb = new StringBuffer();
-		Expression.indent(sb, indentLevel);
-		sb.append(getName() + '\n');
-		for(int i = 0; i < _children.size(); i++) {
-			sb.append(_children.get(i).convertToString(indentLevel+1)); //depth first recursion
+		final StringBuilder sb = new StringBuilder();
+		try {
+			writeTree(sb, indentLevel);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e); //a StringBuilder never throws
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Writes the same indented tree as convertToString straight to out, without building any intermediate Strings,
+	 * so huge trees can be written to a file or socket in O(n) time and without holding the text in memory.
+	 * @param out where to write the tree
+	 * @param indentLevel the indentation level (number of tabs from the left margin) at which to start
+	 * @throws IOException if out fails
+	 */
+	public void writeTree(Appendable out, int indentLevel) throws IOException {
+		// depth first, using a stack of nodes and their indentation levels instead of recursion
+		final ArrayDeque<ParsedExpression> toPrint = new ArrayDeque<ParsedExpression>();
+		final ArrayDeque<Integer> indents = new ArrayDeque<Integer>();
+		toPrint.push(this);
+		indents.push(indentLevel);
+		while(!toPrint.isEmpty()) {
+			final ParsedExpression current = toPrint.pop();
+			final int indent = indents.pop();
+			for(int i = 0; i < indent; i++) {
+				out.append('\t');
+			}
+			out.append(current._name).append('\n');
+			for(int i = current._children.size()-1; i >= 0; i--) { //pushed backwards so they are printed in order
+				toPrint.push((ParsedExpression) current._children.get(i));
+				indents.push(indent+1);
+			}
+		}
+	}
+
+	/**
+	 * Writes this expression to out as compact infix text, like "2*x+(y+1)". Parentheses are only written for ()
+	 * expressions, and around sums below this expression that are direct children of products, so a tree made by hand
+	 * keeps its meaning. Only trees like the parser makes, which are flat and keep their parentheses as () expressions,
+	 * are sure to parse back to the same tree.
+	 * @param out where to write the expression
+	 * @throws IOException if out fails
+	 */
+	public void writeInfix(Appendable out) throws IOException {
+		// the stack holds expressions still to write and the operator and parenthesis Strings between them
+		final ArrayDeque<Object> toWrite = new ArrayDeque<Object>();
+		toWrite.push(this);
+		while(!toWrite.isEmpty()) {
+			final Object next = toWrite.pop();
+			if(next instanceof String) {
+				out.append((String) next);
+				continue;
+			}
+			final ParsedExpression current = (ParsedExpression) next;
+			if(current._kind.isLiteral()) {
+				out.append(current._name);
+				continue;
+			}
+			final boolean parenthesize = current._kind == ExpressionKind.PARENTHESIZED
+					|| (current._kind == ExpressionKind.SUM && current != this && ((ParsedExpression) current._parent)._kind == ExpressionKind.PRODUCT); //this is written the same wherever it is
+			final String operator = current._kind == ExpressionKind.PARENTHESIZED ? "" : current._name;
+			if(parenthesize) out.append('(');
+			if(parenthesize) toWrite.push(")");
+			for(int i = current._children.size()-1; i >= 0; i--) { //pushed backwards so they are written in order
+				toWrite.push(current._children.get(i));
+				if(i > 0) toWrite.push(operator);
+			}
+		}
+	}
+
+	/**
+	 * Returns this expression as compact infix text, the same as writeInfix
+	 * @return the infix text of the expression
+	 */
+	public String toInfixString() {
+		final StringBuilder sb = new StringBuilder();
+		try {
+			writeInfix(sb);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e); //a StringBuilder never throws
 		}
 		return sb.toString();
 	}
@@ -92,8 +288,25 @@ public class ParsedExpression implements CompoundExpression{
 		//if the length is 1 and it's a letter (L -> [a-z]) or it's a number (L -> [0-9]+) then you can't add to this expression, it's terminal
 		_children.add(subexpression);
 		subexpression.setParent(this); //set the parent here to lower complexity in the user functions
+		if(subexpression instanceof ParsedExpression) ((ParsedExpression) subexpression)._indexHint = _children.size()-1;
 	}
 	
+	/**
+	 * Replaces one of the children of this expression. If this expression has a listener, it is told about the replacement
+	 * so a view can put the replacement's node in the old child's place.
+	 * @param index the index of the child to replace
+	 * @param replacement the new child
+	 * @return the child that was replaced, which no longer has a parent
+	 */
+	public Expression replaceSubexpression(int index, Expression replacement) {
+		final Expression replaced = _children.set(index, replacement);
+		replaced.setParent(null);
+		replacement.setParent(this);
+		if(replacement instanceof ParsedExpression) ((ParsedExpression) replacement)._indexHint = index;
+		if(_listener != null) _listener.childReplaced(this, index);
+		return replaced;
+	}
+
 	/**
 	 * Return the children nodes of this expression
 	 * @return the list of children nodes
@@ -110,6 +323,26 @@ public class ParsedExpression implements CompoundExpression{
 		return _name;
 	}
 	
+	/**
+	 * Returns what kind of expression this is. The kind is worked out once, when the expression is made.
+	 * @return the kind of the expression
+	 */
+	public ExpressionKind getKind() {
+		return _kind;
+	}
+
+	/**
+	 * Returns the value of an integer literal
+	 * @return the value of this expression
+	 * @throws IllegalStateException if this expression is not an integer literal
+	 * @throws ArithmeticException if the literal is too big to fit in a long
+	 */
+	public long getValue() {
+		if(_kind != ExpressionKind.INTEGER_LITERAL) throw new IllegalStateException("Not an integer literal: " + _name);
+		if(_value == TOO_BIG) throw new ArithmeticException("Literal too big for a long: " + _name);
+		return _value;
+	}
+	
 	/**
 	 * Checks to see if the string is a number
 	 * @param x the string to check
@@ -125,69 +358,29 @@ public class ParsedExpression implements CompoundExpression{
 		return true;
 	}
 
-	public Node getNode() {
-		if(_node == null) formNode();
-		return _node;
-	}
-	
-	/**
-	 * Helper function to create the node
-	 */
-	private void formNode() {
-		if(isLiteral()) {
-			_labelList.add(new Label(getName())); //add to a list of labels for this expression
-			_node = new HBox(_labelList.get(0)); //creates node
-		}
-		else {
-			_node = new HBox();
-			if(!getName().equals("()")) {
-				Label name = new Label(getName());
-				for(int i = 0; i < _children.size(); i++) {
-					_node.getChildren().add(_children.get(i).getNode());
-					if(i != _children.size()-1) _node.getChildren().add(name);
-					_labelList.add(name);
-					name = new Label(getName()); //avoids the error of adding the same label to the HBox's children by just making a new Label with same string contents.
-				}
-			}
-			else {
-				final Label openParen = new Label("(");
-				_labelList.add(openParen);
-				_node.getChildren().add(openParen);
-				for(int i = 0; i < _children.size(); i++) {
-					_node.getChildren().add(_children.get(i).getNode());
-				}
-				final Label closedParen = new Label(")");
-				_labelList.add(closedParen);
-				_node.getChildren().add(closedParen);
-			}
-		} 
-	}
-	
 	/**
-	 * Sets the identifier of an expression to a certain integer. This is used
-	 * when deep copying, so the deep copy has the same identifier as the
-	 * normal one.
-	 * @param x the new value of the identifier.
+	 * Hands out the next unused identifier
+	 * @return a new identifier, bigger than every other one handed out before
 	 */
-	private void setIdentifier(int x) {
-		identifier = x;
+	private static long nextIdentifier() {
+		return nextIdentifier.getAndIncrement();
 	}
-	
+
 	/**
-	 * Function to reform the node if the underlying expression is changed
+	 * Returns the identifier of this expression. Every new expression gets its own identifier, and deep copies
+	 * keep the identifiers of the expressions they were copied from. A newer expression always has a bigger identifier.
+	 * @return the identifier
 	 */
-	private void reformNode() {
-		_node = null;
-		_labelList.clear();
-		formNode();
+	public long getIdentifier() {
+		return identifier;
 	}
-	
+
 	/**
 	 * Function to check if this expression is literal
 	 * @return true if literal, false otherwise
 	 */
 	public boolean isLiteral() {
-		return (getName().length() == 1 && Character.isLetter(getName().charAt(0)) || ParsedExpression.isNumber(getName()));
+		return _kind.isLiteral();
 	}
 	
 	/**
@@ -198,26 +391,12 @@ public class ParsedExpression implements CompoundExpression{
 		return _parent != null;
 	}
 
-	/**
-	 * Function to set the node of this expression to a certain color
-	 * @param color the color to set to
-	 */
-	public void setExpressionColor(Paint color) {
-		for(int i = 0; i < _labelList.size(); i++) {
-			_labelList.get(i).setTextFill(color);
-		}
-		if(isFocused) getNode().setStyle("-fx-border-color: red;");
-		else getNode().setStyle("");
-		for(int i = 0; i < _children.size(); i++) {
-			((ParsedExpression)_children.get(i)).setExpressionColor(color);
-		}
-	}
-	
 	/**
 	 * Function to get all the possible configurations that this expression could be in
 	 * @return a map containing the index of this expression and the overall expression
 	 */
 	public Map<Integer, Expression> getOtherPossibleConfigurations() {
+		final ExpressionMetrics.Timer timer = ExpressionMetrics.start(ExpressionMetrics.Operation.OTHER_CONFIGURATIONS);
 		final List<Expression> otherChildren = ((ParsedExpression)_parent).getChildren();
 
 		final List<List<Expression>> newConfigs = new ArrayList<List<Expression>>();
@@ -248,9 +427,125 @@ public class ParsedExpression implements CompoundExpression{
 		for(int i = 0; i < parentConfigs.size(); i++) {
 			ret.put(newConfigs.get(i).indexOf(this), parentConfigs.get(i));
 		}
+		timer.stop(_parent);
 		return ret;
 	}
 	
+	/**
+	 * Function to make just one of the configurations getOtherPossibleConfigurations would make. This deep-copies the
+	 * parent, so to actually move this expression, use moveChild on the parent instead.
+	 * @param index the index of the parent's children this expression should be moved to
+	 * @return a deep copy of the parent, with the copy of this expression at index and the other children in the same order
+	 */
+	public ParsedExpression getConfiguration(int index) {
+		final ParsedExpression parent = (ParsedExpression) getParent().deepCopy();
+		final int from = indexInParent();
+		parent._children.add(index, parent._children.remove(from));
+		parent.updateIndexHints(Math.min(from, index), Math.max(from, index)+1);
+		return parent;
+	}
+	
+	/**
+	 * Moves one of this expression's children to another position, shifting the children in between over by one.
+	 * The children stay the same objects and nothing is copied, so this is O(k) in the number of children, where
+	 * getConfiguration followed by convertTo would copy and then walk the whole subtree. The listener is told the
+	 * children were reordered.
+	 * @param from the current index of the child
+	 * @param to the index the child should end up at
+	 * @throws IndexOutOfBoundsException if either index isn't the index of a child
+	 */
+	public void moveChild(int from, int to) {
+		if(from < 0 || from >= _children.size() || to < 0 || to >= _children.size()) {
+			throw new IndexOutOfBoundsException("Cannot move child " + from + " to " + to + " of " + _children.size());
+		}
+		if(from == to) return;
+		_children.add(to, _children.remove(from));
+		updateIndexHints(Math.min(from, to), Math.max(from, to)+1); //only the children in between moved
+		if(_listener != null) _listener.childrenReordered(this);
+	}
+
+	/**
+	 * Returns the index of this expression among its parent's children. This is O(1) as long as the children haven't been
+	 * changed since this expression was added or moved through this class; otherwise the siblings are searched once and
+	 * the index is remembered again.
+	 * @return the index of this expression
+	 * @throws IllegalStateException if this expression has no parent, or isn't one of its parent's children
+	 */
+	int indexInParent() {
+		if(_parent == null) throw new IllegalStateException("Expression has no parent");
+		final List<Expression> siblings = ((ParsedExpression) _parent)._children;
+		if(_indexHint < siblings.size() && siblings.get(_indexHint) == this) return _indexHint;
+		for(int i = 0; i < siblings.size(); i++) {
+			if(siblings.get(i) == this) {
+				_indexHint = i;
+				return i;
+			}
+		}
+		throw new IllegalStateException("Expression is not one of its parent's children");
+	}
+
+	/**
+	 * Helper function to remember where some of the children are after they moved
+	 * @param start the index of the first child that moved
+	 * @param end the index after the last child that moved
+	 */
+	private void updateIndexHints(int start, int end) {
+		for(int i = start; i < end; i++) {
+			((ParsedExpression) _children.get(i))._indexHint = i;
+		}
+	}
+
+	/**
+	 * Lists the expressions of a tree in post-order, the order to build anything from the tree bottom up: children come
+	 * left to right, and each expression comes after its children. The tree is walked with an explicit stack, so deep
+	 * trees can't overflow the call stack.
+	 * @param root the top of the tree
+	 * @return the expressions of the tree, in post-order when iterated or popped
+	 */
+	static Deque<ParsedExpression> postOrder(ParsedExpression root) {
+		return postOrder(root, null);
+	}
+
+	/**
+	 * Lists the expressions of a tree in post-order like postOrder(ParsedExpression), leaving some subtrees out
+	 * @param root the top of the tree
+	 * @param skip which expressions to leave out, along with everything below them; null to keep them all
+	 * @return the expressions of the tree that aren't left out, in post-order when iterated or popped
+	 */
+	static Deque<ParsedExpression> postOrder(ParsedExpression root, Predicate<ParsedExpression> skip) {
+		final ArrayDeque<ParsedExpression> toVisit = new ArrayDeque<ParsedExpression>();
+		final ArrayDeque<ParsedExpression> postOrder = new ArrayDeque<ParsedExpression>();
+		toVisit.push(root);
+		while(!toVisit.isEmpty()) {
+			final ParsedExpression current = toVisit.pop();
+			if(skip != null && skip.test(current)) continue;
+			postOrder.push(current); //visited parents first and right to left, so pushing each onto the front leaves post-order
+			for(Expression child : current._children) {
+				toVisit.push((ParsedExpression) child);
+			}
+		}
+		return postOrder;
+	}
+
+	/**
+	 * Counts the expressions in a tree, with an explicit stack and without listing them
+	 * @param root the top of the tree
+	 * @return the number of expressions in the tree
+	 */
+	static int countNodes(ParsedExpression root) {
+		final ArrayDeque<ParsedExpression> toCount = new ArrayDeque<ParsedExpression>();
+		toCount.push(root);
+		int count = 0;
+		while(!toCount.isEmpty()) {
+			final ParsedExpression current = toCount.pop();
+			count++;
+			for(Expression child : current._children) {
+				toCount.push((ParsedExpression) child);
+			}
+		}
+		return count;
+	}
+
 	/**
 	 * Helper function to copy a list of expressions into a new list, avoiding pointer issues
 	 * @param toCopy the list to copy
@@ -332,56 +627,108 @@ public class ParsedExpression implements CompoundExpression{
 	/**
 	 * A function that will take a ParsedExpression which has the same children as this but in a different order, and convert
 	 * this expression's children to be in the same order while maintaining the same pointers rather than changing them to 
-	 * new objects.
+	 * new objects. Children are matched by identifier, so x should be made from a deep copy of this expression.
+	 * This is O(n) in the size of the tree, and works down the tree with an explicit stack. The whole tree is matched
+	 * before anything is reordered, so if x doesn't match, this expression is left as it was and no listener is told
+	 * anything. Only expressions whose children changed order tell their listener, so a view only moves around the nodes
+	 * that actually moved.
 	 * @param x the expression to convert to
+	 * @throws IllegalArgumentException if x isn't made of the same expressions as this one
 	 */
 	public void convertTo(ParsedExpression x) {
-		final List<String> thisList = makeListString(this);
-		final List<String> xList = makeListString(x);
-		final Map<String, Integer> newIndices = new HashMap<String,Integer>();
-		for(int i = 0; i < thisList.size(); i++) {
-			newIndices.put(thisList.get(i), xList.indexOf(thisList.get(i))); //the new indices of each child expression is stored in the map, tied to the name of the child expression
-		}
-		final List<Expression> newChildren = new ArrayList<Expression>();
-		for(int i = 0; i < thisList.size(); i++) newChildren.add(null); //set up the list so we can just use .set instead of add(index, element), negligable loss of performance
-		for(int i = 0; i < thisList.size(); i++) {
-			newChildren.set(newIndices.get(thisList.get(i)), _children.get(i)); //set the new indicies.
-		}
-		_children = newChildren; //set current children to new children, different order but the same children and same pointers
-		for(int i = 0; i < _children.size(); i++) {
-			((ParsedExpression) _children.get(i)).convertTo((ParsedExpression) x.getChildren().get(i));
-			//recursively convert in case we need to do that. 
-			//better safe than sorry
-			//efficiency doesn't matter much here so yeah
+		final ExpressionMetrics.Timer timer = ExpressionMetrics.start(ExpressionMetrics.Operation.CONVERT_TO);
+		final ArrayDeque<ParsedExpression> toConvert = new ArrayDeque<ParsedExpression>();
+		final ArrayDeque<ParsedExpression> targets = new ArrayDeque<ParsedExpression>();
+		final List<ParsedExpression> reordered = new ArrayList<ParsedExpression>();
+		final List<List<Expression>> newChildren = new ArrayList<List<Expression>>();
+		toConvert.push(this);
+		targets.push(x);
+		while(!toConvert.isEmpty()) {
+			final ParsedExpression current = toConvert.pop();
+			final ParsedExpression target = targets.pop();
+			final List<Expression> children = current.childrenLike(target);
+			if(children != null) {
+				reordered.add(current);
+				newChildren.add(children);
+			}
+			final List<Expression> order = children == null ? current._children : children;
+			for(int i = 0; i < order.size(); i++) {
+				toConvert.push((ParsedExpression) order.get(i));
+				targets.push((ParsedExpression) target._children.get(i));
+			}
 		}
-		reformNode();
+		// everything matched, so nothing can fail from here on; only expressions whose children actually moved touch the scene graph
+		for(int i = 0; i < reordered.size(); i++) {
+			final ParsedExpression current = reordered.get(i);
+			current._children = newChildren.get(i); //different order but the same children and same pointers
+			current.updateIndexHints(0, current._children.size());
+			if(current._listener != null) current._listener.childrenReordered(current);
+		}
+		timer.stop(this);
 	}
-	
+
 	/**
-	 * A helper function that takes a ParsedExpression and converts its children to a list of strings containing their names
-	 * @param x the expression to convert
-	 * @return a list of strings - the strings are the names of the children and the ordering is the exact same as the children.
+	 * Helper function for convertTo that works out this expression's children in the same order as x's, by identifier,
+	 * without changing anything
+	 * @param x the expression whose children are in the order to use
+	 * @return the children in the new order, null if they are already in it
+	 * @throws IllegalArgumentException if x's children aren't the same as this expression's
 	 */
-	private List<String> makeListString(ParsedExpression x) {
-		final List<String> ret = new ArrayList<String>();
-		for(int i = 0; i < x.getChildren().size(); i++) {
-			final ParsedExpression child = ((ParsedExpression) x.getChildren().get(i));
-			ret.add(child.getName() + child.identifier);
-			//what this does is that it adds a unique identifier so that the program knows
-			//which is what and how to match them. like 2+x+x, it can identify the two x's 
-			//it is very, very unlikely two different expressions have the same identifier. 
+	private List<Expression> childrenLike(ParsedExpression x) {
+		final int size = _children.size();
+		if(x._children.size() != size) throw new IllegalArgumentException("Expressions have different children");
+		boolean changed = false;
+		for(int i = 0; i < size && !changed; i++) {
+			changed = ((ParsedExpression) _children.get(i)).identifier != ((ParsedExpression) x._children.get(i)).identifier;
 		}
-		return ret;
+		if(!changed) return null;
+		final Map<Long, Expression> byIdentifier = new HashMap<Long, Expression>(size * 2);
+		for(int i = 0; i < size; i++) {
+			byIdentifier.put(((ParsedExpression) _children.get(i)).identifier, _children.get(i));
+		}
+		final List<Expression> newChildren = new ArrayList<Expression>(size);
+		for(int i = 0; i < size; i++) {
+			final Expression child = byIdentifier.remove(((ParsedExpression) x._children.get(i)).identifier);
+			if(child == null) throw new IllegalArgumentException("Expressions have different children");
+			newChildren.add(child);
+		}
+		return newChildren;
 	}
-	
+
 	/**
-	 * Set whether this node is focused or not
-	 * @param x true if focused, false otherwise
+	 * Returns a hash that is the same for any two expressions that only differ in the order of the children of their sums
+	 * and products. It is worked out from the canonical form each time, in O(n log n); to look up many expressions,
+	 * keep their canonical forms from ImmutableExpression.canonical in a hash set instead.
+	 * @return the hash of the canonical form of this expression
 	 */
-	public void setFocused(boolean x) {
-		isFocused = x;
-		if(!x) setExpressionColor(Paint.valueOf("black"));
+	public int equivalenceHash() {
+		return ImmutableExpression.canonical(this).hashCode();
+	}
+
+	/**
+	 * Checks if an expression can be turned into this one just by reordering the children of sums and products, which
+	 * is exactly what the editor lets the user do
+	 * @param x the expression to compare to
+	 * @return true if the expressions are equivalent, false otherwise
+	 */
+	public boolean isEquivalent(Expression x) {
+		return ImmutableExpression.canonical(this).equals(ImmutableExpression.canonical(x));
+	}
+
+	/**
+	 * Returns the listener told about changes to this expression, usually its view
+	 * @return the listener, null if there is none
+	 */
+	public ExpressionListener getListener() {
+		return _listener;
 	}
-	
 
+	/**
+	 * Sets the listener told about changes to this expression. An expression has at most one listener, and
+	 * deep copies start without one.
+	 * @param listener the new listener, null for none
+	 */
+	public void setListener(ExpressionListener listener) {
+		_listener = listener;
+	}
 }
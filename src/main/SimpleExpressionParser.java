@@ -1,16 +1,21 @@
 package main;
 
-import java.util.ArrayList;
+import java.util.ArrayDeque;
 
 /**
- * Starter code to implement an ExpressionParser. Your code should parse a context-free grammar
- * for mathematical expressions for addition, multiplication, and parentheses over single-letter
- * and integer operands. Suggested (though not required) grammar:
+ * The original ExpressionParser for mathematical expressions for addition, multiplication, and parentheses over
+ * single-letter and number operands. Suggested (though not required) grammar:
  * E := A | X
  * A := A+M | M
  * M := M*M | X
  * X := (E) | L
  * L := [0-9]+ | [a-z]
+ * It splits the string at its first + outside parentheses, or failing that its first *, and parses the two sides;
+ * a string starting with a parenthesized expression is split at the operator right after it instead. Literals are
+ * single letters or anything Double.parseDouble accepts, so 1.5 is a literal here but not in LinearExpressionParser.
+ * The pieces still to be parsed are kept on a heap-allocated stack rather than the call stack, so nesting depth is only
+ * limited by the heap. LinearExpressionParser is the one to use for speed; this one is kept as the reference it is
+ * tested against.
  */
 public class SimpleExpressionParser implements ExpressionParser {
 	/**
@@ -21,60 +26,66 @@ public class SimpleExpressionParser implements ExpressionParser {
 	 * @return the Expression object representing the parsed expression tree
 	 */
 	public Expression parse (String str, boolean withJavaFXControls) throws ExpressionParseException {
+		final ExpressionMetrics.Timer timer = ExpressionMetrics.start(ExpressionMetrics.Operation.PARSE);
 		// Remove spaces -- this simplifies the parsing logic
 		str = str.replaceAll(" ", "");
 		Expression expression = parseExpression(str);
 		if (expression == null) {
 			// If we couldn't parse the string, then raise an error
+			timer.stop(null); //failed parses are measured too
 			throw new ExpressionParseException("Cannot parse expression: " + str);
 		}
 		// Flatten the expression before returning
 		expression.flatten();
+		timer.stop(expression);
 		return expression;
 	}
-	
+
 	/**
-	 * Parses a possible mathematical expression into a valid expression tree
+	 * Parses a possible mathematical expression into a valid expression tree. Every piece is checked as it is split off,
+	 * so a piece that isn't a literal, a parenthesized expression or two expressions around an operator fails the parse.
 	 * @param str the string to parse
 	 * @return the head of the parse tree if the string is valid, null otherwise
 	 */
 	private Expression parseExpression (String str) {
-		if(!verifyExpression(str)) return null;
-		if(str.length() == 1 || ParsedExpression.isNumber(str)) { //if the string is a literal, return it
-			return makeExpr(str,0,str.length());
-		}
-		final ParsedExpression top;
-		final boolean stringStartWithParen = str.charAt(0) == '(';
-		final int cutPoint = stringStartWithParen ? findCloseParen(str) : findCutPoint(str); 
-		if(cutPoint == str.length()-1 && stringStartWithParen) { 
-			top = makeExpr("()",0,2);
-			addParsedExpr(top,str,1,str.length()-1); //parse the interior expression
-			return top;
-		}
-		else if(str.charAt(cutPoint) == ')'){ //otherwise if first character is an open paren but the close paren isn't at the end of the string
-			top = makeExpr(str,cutPoint+1,cutPoint+2); //create a new expression of the modifier next to the close paren
-			addParsedExpr(top,str,0,cutPoint+1); //parse the parenthetical expression
-			addParsedExpr(top,str,cutPoint+2,str.length()); //parse the rest of the expression
-			return top;
+		final Text text = new Text(str);
+		if(!text.isBalanced()) return null; //every valid expression has balanced parentheses
+		final ParsedExpression[] root = new ParsedExpression[1];
+		// pieces are popped left first, so every parent gets its children in order
+		final ArrayDeque<Piece> toParse = new ArrayDeque<Piece>();
+		toParse.push(new Piece(null, 0, str.length()));
+		while(!toParse.isEmpty()) {
+			final Piece piece = toParse.pop();
+			final ParsedExpression top;
+			if(text.isLiteral(piece._start, piece._end)) { //if the string is a literal, it is a leaf
+				top = makeExpr(str, piece._start, piece._end);
+			}
+			else if(piece._start < piece._end && str.charAt(piece._start) == '(') {
+				final int close = text.closeParen(piece._start);
+				if(close == piece._end-1) {
+					top = makeExpr("()",0,2);
+					toParse.push(new Piece(top, piece._start+1, close)); //parse the interior expression
+				}
+				else { //otherwise the modifier next to the close paren splits it
+					if(!text.isSplit(close+1, piece._start, piece._end)) return null;
+					top = makeExpr(str,close+1,close+2);
+					toParse.push(new Piece(top, close+2, piece._end)); //parse the rest of the expression
+					toParse.push(new Piece(top, piece._start, close+1)); //parse the parenthetical expression
+				}
+			}
+			else {
+				final int cutPoint = text.findCutPoint(piece._start, piece._end);
+				if(!text.isSplit(cutPoint, piece._start, piece._end)) return null;
+				top = makeExpr(str,cutPoint,cutPoint+1); //otherwise x is just the position of a modifier
+				toParse.push(new Piece(top, cutPoint+1, piece._end));
+				toParse.push(new Piece(top, piece._start, cutPoint));
+			}
+			if(piece._parent == null) root[0] = top;
+			else piece._parent.addSubexpression(top);
 		}
-		top = makeExpr(str,cutPoint,cutPoint+1); //otherwise x is just the position of a modifier
-		addParsedExpr(top,str,0,cutPoint);
-		addParsedExpr(top,str,cutPoint+1,str.length());
-		return top;
+		return root[0];
 	}
-	
-	
-	/**
-	 * Helper function to add a non-parsed subexpression to an already parsed expression
-	 * @param top the parsed expression
-	 * @param x the string containing the non-parsed subexpression
-	 * @param start the position to start the parsing of x
-	 * @param end the position to end the parsing of x
-	 */
-	private void addParsedExpr(ParsedExpression top, String x, int start, int end) {
-		top.addSubexpression(parseExpression(x.substring(start, end)));
-	}
-	
+
 	/**
 	 * Helper function to make a new ParsedExpression
 	 * @param x the string to make it out of
@@ -85,76 +96,136 @@ public class SimpleExpressionParser implements ExpressionParser {
 	private ParsedExpression makeExpr(String x, int start, int end) {
 		return new ParsedExpression(x.substring(start,end));
 	}
-	/**
-	 * Verifies that a string is a valid mathematical expression
-	 * @param x the string to verify
-	 * @return true if it is a valid expression, false otherwise
-	 */
-	private boolean verifyExpression(String x) {
-		final int len = x.length();
-		if((len == 1 && Character.isLetter(x.charAt(0)) || ParsedExpression.isNumber(x))) return true; //L -> [a-z] | [0-9]+
-		else if (len >= 2 && x.charAt(0) == '(' && verifyExpression(x.substring(1, len-1)) && x.charAt(len-1) == ')') return true; //X -> (E)
-		if(verifyModifier(x)) return true; // M -> M*M || A -> A+M
-		return false;
-	}
-	
-	/**
-	 * Verifies that a string x passes the grammar cases M -> M*M || A -> A+M
-	 * @param x the string to verify
-	 * @return true if it is valid, false otherwise
-	 */
-	private boolean verifyModifier(String x) {
-		final int len = x.length();
-		for(int i = 1; i < len-1; i++) {
-			if(!isNotModifier(x.charAt(i)) && isNotModifier(x.charAt(i-1)) && isNotModifier(x.charAt(i+1))
-					&& verifyExpression(x.substring(0,i)) && verifyExpression(x.substring(i+1))) return true;
-			//checks if the character at position i is a modifier, and the two characters around it aren't
-		}
-		return false;
-	}
-	
+
 	/**
 	 * Checks to see if a character is not a modifier
 	 * @param x the character to check
 	 * @return true if it not a modifier, false otherwise
 	 */
-	private boolean isNotModifier(Character x) {
+	private static boolean isNotModifier(char x) {
 		return !(x == '*' || x == '+');
 	}
 
 	/**
-	 * Finds where to split the parsing tree off, prioritizing + over *
-	 * @param x the string to look through
-	 * @return the index of + or *
-	 */
-	private int findCutPoint(String x) {
-		final int plus = find(x, 0, '+');
-		return plus == -1 ? find(x, 0, '*') : plus; //if there is no +, find the *.
-	}
-	
-	/**
-	 * Finds the closing parenthesis of a string with a '(' at index 0
-	 * @param x the string to look through
-	 * @return index of closing parenthesis
+	 * A range of the string still to be parsed, and the expression to add it to
 	 */
-	private int findCloseParen(String x) {
-		return find(x, 1, ')');
+	private static class Piece {
+		final private ParsedExpression _parent;
+		final private int _start;
+		final private int _end;
+
+		/**
+		 * @param parent the expression the parsed piece is added to, null for the whole string
+		 * @param start the index of the first character of the piece
+		 * @param end the index after the last character of the piece
+		 */
+		Piece(ParsedExpression parent, int start, int end) {
+			_parent = parent;
+			_start = start;
+			_end = end;
+		}
 	}
-	
+
 	/**
-	 * Helper function to look through a mathematical string looking for a certain character
-	 * @param x the string to look through
-	 * @param start the start position in the string
-	 * @param lookFor the character to look for
-	 * @return the index of the character, -1 if it is not present
+	 * The string being parsed, with the matching parentheses and running counts of the operators and parentheses
+	 * worked out once, so pieces can be checked without searching or copying them
 	 */
-	private int find(String x, int start, Character lookFor) {
-		int passedParen = 0; //makes sure that this character is not inside of a parenthesis block
-		for(int i = start; i < x.length(); i++) {
-			if(x.charAt(i) == lookFor && passedParen <= 0) return i;
-			else if (x.charAt(i) == ')') passedParen--;
-			else if (x.charAt(i) == '(') passedParen++;
+	private static class Text {
+		final private String _str;
+		final private int[] _closeParen;
+		final private int[] _plusCount;
+		final private int[] _notLiteralCount;
+		final private boolean _balanced;
+
+		Text(String str) {
+			_str = str;
+			_closeParen = new int[str.length()];
+			_plusCount = new int[str.length()+1];
+			_notLiteralCount = new int[str.length()+1];
+			final ArrayDeque<Integer> open = new ArrayDeque<Integer>();
+			boolean balanced = true;
+			for(int i = 0; i < str.length(); i++) {
+				final char c = str.charAt(i);
+				if(c == '(') open.push(i);
+				else if(c == ')') {
+					if(open.isEmpty()) balanced = false;
+					else _closeParen[open.pop()] = i;
+				}
+				_plusCount[i+1] = _plusCount[i] + (c == '+' ? 1 : 0);
+				_notLiteralCount[i+1] = _notLiteralCount[i] + (c == '(' || c == ')' || c == '*' ? 1 : 0);
+			}
+			_balanced = balanced && open.isEmpty();
+		}
+
+		/**
+		 * Function to check if every parenthesis in the string has a partner
+		 * @return true if it does, false otherwise
+		 */
+		boolean isBalanced() {
+			return _balanced;
+		}
+
+		/**
+		 * Finds the closing parenthesis of an open one
+		 * @param open the index of the open parenthesis
+		 * @return index of closing parenthesis
+		 */
+		int closeParen(int open) {
+			return _closeParen[open];
+		}
+
+		/**
+		 * Function to check if a piece is a literal: L -> [a-z] | a number
+		 * @param start the index of the first character of the piece
+		 * @param end the index after the last character of the piece
+		 * @return true if it is, false otherwise
+		 */
+		boolean isLiteral(int start, int end) {
+			if(end - start == 1 && Character.isLetter(_str.charAt(start))) return true;
+			// a number has no parentheses or *, and at most a sign and an exponent sign, so most pieces aren't copied to check
+			if(end == start || _notLiteralCount[end] != _notLiteralCount[start] || _plusCount[end] - _plusCount[start] > 2) return false;
+			return ParsedExpression.isNumber(_str.substring(start, end));
+		}
+
+		/**
+		 * Function to check if a piece can be split at a modifier: M -> M*M || A -> A+M. Both sides must be non-empty
+		 * and the characters around the modifier can't be modifiers themselves.
+		 * @param at the index to split at
+		 * @param start the index of the first character of the piece
+		 * @param end the index after the last character of the piece
+		 * @return true if it can, false otherwise
+		 */
+		boolean isSplit(int at, int start, int end) {
+			return at > start && at < end-1 && !isNotModifier(_str.charAt(at))
+					&& isNotModifier(_str.charAt(at-1)) && isNotModifier(_str.charAt(at+1));
+		}
+
+		/**
+		 * Finds where to split a piece, prioritizing + over *
+		 * @param start the index of the first character of the piece
+		 * @param end the index after the last character of the piece
+		 * @return the index of + or *, -1 if there is neither outside parentheses
+		 */
+		int findCutPoint(int start, int end) {
+			final int plus = _plusCount[end] == _plusCount[start] ? -1 : find(start, end, '+');
+			return plus == -1 ? find(start, end, '*') : plus; //if there is no +, find the *.
+		}
+
+		/**
+		 * Helper function to look through a piece for a character outside of any parentheses, jumping over parenthesized blocks
+		 * @param start the index of the first character of the piece
+		 * @param end the index after the last character of the piece
+		 * @param lookFor the character to look for
+		 * @return the index of the character, -1 if it is not present
+		 */
+		private int find(int start, int end, char lookFor) {
+			int i = start;
+			while(i < end) {
+				final char c = _str.charAt(i);
+				if(c == lookFor) return i;
+				i = c == '(' ? _closeParen[i]+1 : i+1;
+			}
+			return -1;
 		}
-		return -1;
 	}
 }
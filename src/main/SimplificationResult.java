@@ -0,0 +1,48 @@
+package main;
+
+/**
+ * The outcome of simplifying an expression: the simplified expression and how much smaller it is.
+ */
+public class SimplificationResult {
+	final private Expression _expression;
+	final private int _originalNodeCount;
+	final private int _nodeCount;
+
+	SimplificationResult(Expression expression, int originalNodeCount, int nodeCount) {
+		_expression = expression;
+		_originalNodeCount = originalNodeCount;
+		_nodeCount = nodeCount;
+	}
+
+	/**
+	 * Returns the simplified expression
+	 * @return the simplified expression, a new tree
+	 */
+	public Expression getExpression() {
+		return _expression;
+	}
+
+	/**
+	 * Returns how many nodes the expression had before it was simplified
+	 * @return the number of nodes in the original expression
+	 */
+	public int getOriginalNodeCount() {
+		return _originalNodeCount;
+	}
+
+	/**
+	 * Returns how many nodes the simplified expression has
+	 * @return the number of nodes in the simplified expression
+	 */
+	public int getNodeCount() {
+		return _nodeCount;
+	}
+
+	/**
+	 * Returns how many nodes simplifying removed
+	 * @return the number of nodes in the original expression minus the number in the simplified one
+	 */
+	public int getRemovedNodeCount() {
+		return _originalNodeCount - _nodeCount;
+	}
+}
@@ -0,0 +1,96 @@
+package tests;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import main.BatchExpressionParser;
+import main.ExpressionParseException;
+import main.LinearExpressionParser;
+import main.ParseResult;
+import main.SimpleExpressionParser;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.io.*;
+import java.nio.CharBuffer;
+
+/**
+ * Tests for parsing batches of expressions in parallel.
+ */
+public class BatchExpressionParserTester {
+	private ForkJoinPool _pool;
+	private BatchExpressionParser _batchParser;
+	private List<String> _inputs;
+
+	@Before
+	public void setUp () throws IOException {
+		_pool = new ForkJoinPool(4);
+		_batchParser = new BatchExpressionParser(new LinearExpressionParser(), _pool);
+		_inputs = new ArrayList<String>();
+		for(int i = 0; i < 1000; i++) {
+			_inputs.add(i % 7 == 0 ? i + "+" : i + "*x+y"); //every 7th expression is invalid
+		}
+	}
+
+	@After
+	public void tearDown () {
+		_pool.shutdown();
+	}
+
+	@Test
+	/**
+	 * Verifies that the results come back in input order, with failures reported for the invalid inputs only.
+	 */
+	public void testParseAllList () throws ExpressionParseException {
+		final List<ParseResult> results = _batchParser.parseAll(_inputs);
+		assertEquals(_inputs.size(), results.size());
+		for(int i = 0; i < results.size(); i++) {
+			checkResult(i, results.get(i));
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies that the stream variant keeps the input order too.
+	 */
+	public void testParseAllStream () throws ExpressionParseException {
+		final List<ParseResult> results = _batchParser.parseAll(_inputs.stream()).collect(Collectors.toList());
+		assertEquals(_inputs.size(), results.size());
+		for(int i = 0; i < results.size(); i++) {
+			checkResult(i, results.get(i));
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies that inputs that aren't Strings parse the same, with the LinearExpressionParser reading them in place
+	 * and other parsers reading them as Strings.
+	 */
+	public void testCharSequenceInputs () throws ExpressionParseException {
+		final CharSequence[] inputs = { new StringBuilder("3*x+y"), CharBuffer.wrap("zz3*x+yzz", 2, 7) };
+		final BatchExpressionParser simple = new BatchExpressionParser(new SimpleExpressionParser(), _pool);
+		for(CharSequence input : inputs) {
+			checkResult(3, _batchParser.parse(input));
+			checkResult(3, simple.parse(input));
+		}
+		checkResult(7, _batchParser.parse(new StringBuilder("7+")));
+	}
+
+	/**
+	 * Checks the result of parsing the input at index i
+	 * @param i the index of the input
+	 * @param result the result of parsing it
+	 */
+	private void checkResult (int i, ParseResult result) throws ExpressionParseException {
+		if(i % 7 == 0) {
+			assertFalse(result.isSuccess());
+			assertNotNull(result.getException());
+		}
+		else {
+			assertTrue(result.isSuccess());
+			assertEquals("+\n\t*\n\t\t" + i + "\n\t\tx\n\ty\n", result.get().convertToString(0));
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package tests;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import main.CachingExpressionParser;
+import main.ExpressionParseException;
+import main.ParsedExpression;
+
+import java.io.*;
+
+/**
+ * Tests for the LRU parse cache.
+ */
+public class CachingExpressionParserTester {
+	private CachingExpressionParser _parser;
+
+	@Before
+	public void setUp () throws IOException {
+		_parser = new CachingExpressionParser(10);
+	}
+
+	@Test
+	/**
+	 * Verifies that text differing only in spaces is a hit, and that the copies handed out are independent.
+	 */
+	public void testHitReturnsIndependentCopy () throws ExpressionParseException {
+		final ParsedExpression first = (ParsedExpression) _parser.parse("2*x+y", false);
+		final ParsedExpression second = (ParsedExpression) _parser.parse("2 * x + y", false);
+		assertEquals(1, _parser.getMissCount());
+		assertEquals(1, _parser.getHitCount());
+		assertNotSame(first, second);
+		first.getChildren().clear();
+		assertEquals("+\n\t*\n\t\t2\n\t\tx\n\ty\n", second.convertToString(0));
+		assertEquals("+\n\t*\n\t\t2\n\t\tx\n\ty\n", _parser.parse("2*x+y", false).convertToString(0));
+	}
+
+	@Test
+	/**
+	 * Verifies that the least recently used entries are evicted once the cache is over its weight.
+	 */
+	public void testEviction () throws ExpressionParseException {
+		_parser.parse("1+2", false); //weight 3
+		_parser.parse("3+4", false); //weight 6
+		_parser.parse("1+2", false); //hit, 3+4 is now least recently used
+		_parser.parse("5+6+7", false); //weight 11, evicts 3+4
+		assertEquals(1, _parser.getEvictionCount());
+		assertEquals(2, _parser.size());
+		assertEquals(8, _parser.getWeight());
+		_parser.parse("1+2", false);
+		assertEquals(2, _parser.getHitCount());
+		_parser.parse("3+4", false);
+		assertEquals(4, _parser.getMissCount());
+	}
+
+	@Test(expected = ExpressionParseException.class)
+	/**
+	 * Verifies that invalid expressions still throw, and are not cached.
+	 */
+	public void testInvalidExpression () throws ExpressionParseException {
+		try {
+			_parser.parse("1+", false);
+		} finally {
+			assertEquals(0, _parser.size());
+		}
+	}
+}
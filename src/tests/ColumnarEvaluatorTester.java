@@ -0,0 +1,130 @@
+package tests;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import main.ColumnarEvaluator;
+import main.CompiledExpression;
+import main.Expression;
+import main.ExpressionParseException;
+import main.ExpressionParser;
+import main.LinearExpressionParser;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Tests for evaluating expressions over columns of values.
+ */
+public class ColumnarEvaluatorTester {
+	private ExpressionParser _parser;
+
+	@Before
+	public void setUp () throws IOException {
+		_parser = new LinearExpressionParser();
+	}
+
+	/**
+	 * Makes columns of random values
+	 * @param count the number of columns
+	 * @param rows the number of rows
+	 * @return the columns
+	 */
+	private static double[][] randomColumns (int count, int rows) {
+		final Random random = new Random(42);
+		final double[][] columns = new double[count][rows];
+		for (int i = 0; i < count; i++) {
+			for (int j = 0; j < rows; j++) {
+				columns[i][j] = random.nextDouble() * 10 - 5;
+			}
+		}
+		return columns;
+	}
+
+	/**
+	 * Checks that every row of a columnar evaluation matches evaluating the row on its own
+	 * @param expressionStr the expression to evaluate
+	 * @param rows the number of rows
+	 */
+	private void checkMatchesCompiled (String expressionStr, int rows) throws ExpressionParseException {
+		final Expression expression = _parser.parse(expressionStr, false);
+		final ColumnarEvaluator evaluator = new ColumnarEvaluator(expression);
+		final CompiledExpression compiled = CompiledExpression.compile(expression);
+		assertEquals(compiled.getVariables(), evaluator.getVariables());
+		final double[][] columns = randomColumns(evaluator.getVariables().size(), rows);
+		final double[] out = new double[rows];
+		evaluator.evaluate(columns, out);
+		final double[] row = new double[columns.length];
+		for (int j = 0; j < rows; j++) {
+			for (int i = 0; i < columns.length; i++) {
+				row[i] = columns[i][j];
+			}
+			final double expected = compiled.evaluate(row);
+			assertEquals(expected, out[j], 1e-9 * Math.max(1, Math.abs(expected)));
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies that columnar evaluation gives the same values as CompiledExpression, for sizes around the chunk size.
+	 */
+	public void testMatchesCompiled () throws ExpressionParseException {
+		final String[] expressions = { "2*x+3*y+4*z+(7+6*z)", "x", "x*(y+(z*(x+1)))*2", "a*b*c+((a+b)*(c+1))+a+b", "1+2*x+x*x*x" };
+		for (String expressionStr : expressions) {
+			for (int rows : new int[] { 0, 1, 1023, 1024, 1025, 5000 }) {
+				checkMatchesCompiled(expressionStr, rows);
+			}
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies that tables big enough to be split across threads are evaluated correctly.
+	 */
+	public void testParallel () throws ExpressionParseException {
+		checkMatchesCompiled("(x+1)*(y+2)+x*y*3", 300001);
+	}
+
+	@Test
+	/**
+	 * Verifies evaluation over long columns, including a constant part that is worked out ahead of time.
+	 */
+	public void testLongColumns () throws ExpressionParseException {
+		final ColumnarEvaluator evaluator = new ColumnarEvaluator(_parser.parse("x*y+(2+3)*4+y", false));
+		final long[] x = { 1, 2, 3, 1L << 40 };
+		final long[] y = { 10, 20, 30, 1L << 40 };
+		final long[] out = new long[4];
+		evaluator.evaluate(new long[][] { x, y }, out);
+		for (int i = 0; i < out.length; i++) {
+			assertEquals(x[i] * y[i] + 20 + y[i], out[i]); //the last row overflows the same way
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies that an expression without variables fills the output.
+	 */
+	public void testConstant () throws ExpressionParseException {
+		final double[] out = new double[3000];
+		new ColumnarEvaluator(_parser.parse("(1+2)*(3+4)", false)).evaluate(new double[0][], out);
+		for (double value : out) {
+			assertEquals(21.0, value, 0);
+		}
+	}
+
+	@Test(expected = ArithmeticException.class)
+	/**
+	 * Verifies that long evaluation refuses literals that don't fit in a long.
+	 */
+	public void testLiteralTooBigForLong () throws ExpressionParseException {
+		new ColumnarEvaluator(_parser.parse("x+100000000000000000000", false)).evaluate(new long[][] { { 1 } }, new long[1]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	/**
+	 * Verifies that a column shorter than the output is reported.
+	 */
+	public void testShortColumn () throws ExpressionParseException {
+		new ColumnarEvaluator(_parser.parse("x+y", false)).evaluate(new double[][] { new double[10], new double[5] }, new double[10]);
+	}
+}
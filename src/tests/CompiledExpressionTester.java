@@ -0,0 +1,80 @@
+package tests;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import main.CompiledExpression;
+import main.ExpressionParseException;
+import main.ExpressionParser;
+import main.LinearExpressionParser;
+import main.SimpleExpressionParser;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Tests for compiling and evaluating expressions.
+ */
+public class CompiledExpressionTester {
+	private ExpressionParser _parser;
+
+	@Before
+	public void setUp () throws IOException {
+		_parser = new LinearExpressionParser();
+	}
+
+	@Test
+	/**
+	 * Verifies that variables get slots in the order they first appear, and that evaluating uses them.
+	 */
+	public void testEvaluate () throws ExpressionParseException {
+		final CompiledExpression compiled = CompiledExpression.compile(_parser.parse("2*x+3*y+4*z+(7+6*z)", false));
+		assertEquals(Arrays.asList("x", "y", "z"), compiled.getVariables());
+		assertEquals(2, compiled.getSlot("z"));
+		assertEquals(-1, compiled.getSlot("w"));
+		// 2*1 + 3*10 + 4*100 + 7 + 6*100
+		assertEquals(1039.0, compiled.evaluate(new double[] { 1, 10, 100 }), 0);
+		assertEquals(7.0, compiled.evaluate(new double[] { 0, 0, 0 }), 0);
+	}
+
+	@Test
+	/**
+	 * Verifies precedence, nested parentheses and operators with more than two operands.
+	 */
+	public void testPrecedenceAndNesting () throws ExpressionParseException {
+		final CompiledExpression compiled = CompiledExpression.compile(_parser.parse("a*b*c+((a+b)*(c+1))+a+b", false));
+		// 2*3*4 + (5*5) + 2 + 3
+		assertEquals(54.0, compiled.evaluate(new double[] { 2, 3, 4 }), 0);
+	}
+
+	@Test
+	/**
+	 * Verifies that expressions without variables, literals too big for a long and literals that aren't integers evaluate.
+	 */
+	public void testConstants () throws ExpressionParseException {
+		assertEquals(47.0, CompiledExpression.compile(_parser.parse("(1+2)*(3+4)*2+5", false)).evaluate(new double[0]), 0);
+		assertEquals(1e20, CompiledExpression.compile(_parser.parse("100000000000000000000", false)).evaluate(new double[0]), 0);
+		assertEquals(4.5, CompiledExpression.compile(new SimpleExpressionParser().parse("1.5*3", false)).evaluate(new double[0]), 0);
+	}
+
+	@Test
+	/**
+	 * Verifies evaluating with values given by name.
+	 */
+	public void testEvaluateByName () throws ExpressionParseException {
+		final CompiledExpression compiled = CompiledExpression.compile(_parser.parse("x*y+1", false));
+		final Map<String, Integer> values = new HashMap<String, Integer>();
+		values.put("x", 6);
+		values.put("y", 7);
+		values.put("unused", 1);
+		assertEquals(43.0, compiled.evaluate(values), 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	/**
+	 * Verifies that a variable without a value is reported.
+	 */
+	public void testMissingVariable () throws ExpressionParseException {
+		CompiledExpression.compile(_parser.parse("x*y+1", false)).evaluate(Collections.singletonMap("x", 2.0));
+	}
+}
@@ -0,0 +1,148 @@
+package tests;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import main.ExpressionHitIndex;
+import main.ExpressionParseException;
+import main.LinearExpressionParser;
+import main.ParsedExpression;
+
+import java.io.*;
+import java.util.*;
+import javafx.geometry.BoundingBox;
+import javafx.geometry.Bounds;
+import javafx.geometry.Point2D;
+
+/**
+ * Tests for looking up expressions by position. The bounds are given directly, the way the editor's layout would
+ * work them out, so no JavaFX toolkit is needed.
+ */
+public class ExpressionHitIndexTester {
+	private ParsedExpression _root;
+	private ParsedExpression _left;
+	private ParsedExpression _right;
+	private ExpressionHitIndex _index;
+
+	/**
+	 * Lays out 2*x+3*y in the root's coordinates, 20 high, with gaps where the + and * labels are:
+	 * 2*x covers [0, 40) with 2 at [0, 10) and x at [30, 40); 3*y covers [50, 100) with 3 at [50, 60) and y at [80, 100).
+	 * The root is at (100, 50) in the scene.
+	 */
+	@Before
+	public void setUp () throws ExpressionParseException {
+		_root = (ParsedExpression) new LinearExpressionParser().parse("2*x+3*y", false);
+		_left = (ParsedExpression) _root.getChildren().get(0);
+		_right = (ParsedExpression) _root.getChildren().get(1);
+		final Map<ParsedExpression, Bounds> bounds = new IdentityHashMap<ParsedExpression, Bounds>();
+		bounds.put(_root, new BoundingBox(0, 0, 100, 20));
+		bounds.put(_left, new BoundingBox(0, 0, 40, 20));
+		bounds.put(child(_left, 0), new BoundingBox(0, 0, 10, 20));
+		bounds.put(child(_left, 1), new BoundingBox(30, 0, 10, 20));
+		bounds.put(_right, new BoundingBox(50, 0, 50, 20));
+		bounds.put(child(_right, 0), new BoundingBox(50, 0, 10, 20));
+		bounds.put(child(_right, 1), new BoundingBox(80, 0, 20, 20));
+		_index = new ExpressionHitIndex(_root, new Point2D(100, 50), bounds);
+	}
+
+	/**
+	 * Helper function to get a child of an expression
+	 * @param x the expression
+	 * @param index the index of the child
+	 * @return the child
+	 */
+	private static ParsedExpression child (ParsedExpression x, int index) {
+		return (ParsedExpression) x.getChildren().get(index);
+	}
+
+	@Test
+	/**
+	 * Verifies that the deepest expression under a point is found, in scene coordinates.
+	 */
+	public void testDeepestAt () {
+		assertSame(child(_left, 0), _index.deepestAt(105, 60));
+		assertSame(child(_left, 1), _index.deepestAt(130, 60));
+		assertSame(child(_right, 1), _index.deepestAt(199, 70));
+		// on the left edge of an expression counts as inside it
+		assertSame(child(_right, 0), _index.deepestAt(150, 55));
+	}
+
+	@Test
+	/**
+	 * Verifies that the gaps between children, where the operator labels are, belong to the parent.
+	 */
+	public void testGaps () {
+		assertSame(_left, _index.deepestAt(120, 60));
+		assertSame(_right, _index.deepestAt(170, 60));
+		assertSame(_root, _index.deepestAt(145, 60));
+		assertNull(_index.childAt(_root, 145, 60));
+	}
+
+	@Test
+	/**
+	 * Verifies that points outside the expression find nothing.
+	 */
+	public void testOutside () {
+		assertNull(_index.deepestAt(99, 60));
+		assertNull(_index.deepestAt(201, 60));
+		assertNull(_index.deepestAt(105, 49));
+		assertNull(_index.deepestAt(105, 71));
+		assertNull(_index.childAt(_left, 105, 80));
+	}
+
+	@Test
+	/**
+	 * Verifies that childAt finds the child of the given expression that contains the point, however deep the point is.
+	 */
+	public void testChildAt () {
+		assertSame(_left, _index.childAt(_root, 105, 60));
+		assertSame(_left, _index.childAt(_root, 120, 60));
+		assertSame(_right, _index.childAt(_root, 190, 60));
+		assertSame(child(_left, 1), _index.childAt(_left, 135, 60));
+		assertNull(_index.childAt(_left, 120, 60));
+		// the point is in the other child of the root, not under _left at all
+		assertNull(_index.childAt(_left, 190, 60));
+		// expressions that aren't in the index have no children in it
+		assertNull(_index.childAt(new ParsedExpression("+"), 105, 60));
+		assertNull(_index.childAt(child(_left, 0), 105, 60));
+	}
+
+	@Test
+	/**
+	 * Verifies that in a deep chain of nested expressions, each one inside the last, every gap belongs to the deepest
+	 * expression covering it.
+	 */
+	public void testDeepNesting () {
+		final int depth = 5000;
+		final ParsedExpression[] chain = new ParsedExpression[depth+1];
+		final Map<ParsedExpression, Bounds> bounds = new IdentityHashMap<ParsedExpression, Bounds>();
+		for(int d = 0; d <= depth; d++) {
+			chain[d] = new ParsedExpression(d == depth ? "x" : "()");
+			if(d > 0) chain[d-1].addSubexpression(chain[d]);
+			bounds.put(chain[d], new BoundingBox(d, 0, 2*(depth-d)+1, 20)); //[d, 2*depth-d+1)
+		}
+		final ExpressionHitIndex index = new ExpressionHitIndex(chain[0], new Point2D(0, 0), bounds);
+		for(int d = 0; d <= depth; d++) {
+			assertSame(chain[d], index.deepestAt(d + 0.5, 10));
+			assertSame(chain[d], index.deepestAt(2*depth - d + 0.5, 10));
+		}
+		assertSame(chain[1], index.childAt(chain[0], depth, 10));
+	}
+
+	@Test
+	/**
+	 * Verifies finding the nearest of a sorted array of positions.
+	 */
+	public void testNearest () {
+		final double[] positions = { 0, 10, 30, 60 };
+		assertEquals(0, ExpressionHitIndex.nearest(positions, -5));
+		assertEquals(0, ExpressionHitIndex.nearest(positions, 0));
+		assertEquals(1, ExpressionHitIndex.nearest(positions, 12));
+		// ties go to the left
+		assertEquals(1, ExpressionHitIndex.nearest(positions, 20));
+		assertEquals(2, ExpressionHitIndex.nearest(positions, 21));
+		assertEquals(3, ExpressionHitIndex.nearest(positions, 60));
+		assertEquals(3, ExpressionHitIndex.nearest(positions, 1000));
+		assertEquals(0, ExpressionHitIndex.nearest(new double[] { 5 }, 1000));
+	}
+}
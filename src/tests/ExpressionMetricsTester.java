@@ -0,0 +1,172 @@
+package tests;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import main.CachingExpressionParser;
+import main.ExpressionMetrics;
+import main.ExpressionMetrics.Operation;
+import main.ExpressionParseException;
+import main.ExpressionParser;
+import main.LinearExpressionParser;
+import main.OperationStatsMXBean;
+import main.ParsedExpression;
+import main.SimpleExpressionParser;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import javax.management.Attribute;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Tests for the metrics, MBeans and JFR events of the expression operations.
+ */
+public class ExpressionMetricsTester {
+	private ExpressionParser _parser;
+
+	@Before
+	public void setUp () throws IOException {
+		_parser = new LinearExpressionParser();
+		ExpressionMetrics.setEnabled(false);
+		ExpressionMetrics.reset();
+	}
+
+	@After
+	public void tearDown () {
+		ExpressionMetrics.setEnabled(false);
+		ExpressionMetrics.reset();
+	}
+
+	@Test
+	/**
+	 * Verifies that nothing is recorded while the metrics are off.
+	 */
+	public void testDisabled () throws ExpressionParseException {
+		_parser.parse("2*x+3*y", false).deepCopy();
+		assertEquals(0, ExpressionMetrics.getStats(Operation.PARSE).getCount());
+		assertEquals(0, ExpressionMetrics.getStats(Operation.DEEP_COPY).getCount());
+	}
+
+	@Test
+	/**
+	 * Verifies that counts, node counts and latencies are recorded for every tree operation.
+	 */
+	public void testTreeOperations () throws ExpressionParseException {
+		ExpressionMetrics.setEnabled(true);
+		final ParsedExpression expression = (ParsedExpression) _parser.parse("2*x+3*y+4*z+(7+6*z)", false);
+		try {
+			_parser.parse("2*x+", false);
+			fail("Expected a parse exception");
+		} catch (ExpressionParseException epe) {
+			//failed parses are measured too
+		}
+		final OperationStatsMXBean parse = ExpressionMetrics.getStats(Operation.PARSE);
+		assertEquals(2, parse.getCount());
+		assertEquals(16, parse.getMaxNodeCount());
+		assertEquals(0, parse.getLastNodeCount());
+		assertEquals(16, parse.getTotalNodeCount());
+		assertTrue(parse.getTotalNanos() > 0);
+		assertTrue(parse.getMaxNanos() <= parse.getTotalNanos());
+		assertTrue(parse.getMedianNanos() <= parse.getPercentile99Nanos());
+		assertTrue(parse.getPercentile99Nanos() >= parse.getMaxNanos());
+		long histogramCount = 0;
+		for(long bucket : parse.getLatencyHistogram()) {
+			histogramCount += bucket;
+		}
+		assertEquals(2, histogramCount);
+
+		final ParsedExpression copy = (ParsedExpression) expression.deepCopy();
+		assertEquals(1, ExpressionMetrics.getStats(Operation.DEEP_COPY).getCount());
+		assertEquals(16, ExpressionMetrics.getStats(Operation.DEEP_COPY).getLastNodeCount());
+		copy.flatten();
+		assertEquals(1, ExpressionMetrics.getStats(Operation.FLATTEN).getCount());
+		assertEquals(16, ExpressionMetrics.getStats(Operation.FLATTEN).getLastNodeCount());
+		((ParsedExpression) expression.getChildren().get(0)).getOtherPossibleConfigurations();
+		assertEquals(1, ExpressionMetrics.getStats(Operation.OTHER_CONFIGURATIONS).getCount());
+		assertEquals(16, ExpressionMetrics.getStats(Operation.OTHER_CONFIGURATIONS).getLastNodeCount());
+		expression.convertTo(copy);
+		assertEquals(1, ExpressionMetrics.getStats(Operation.CONVERT_TO).getCount());
+		assertEquals(16, ExpressionMetrics.getStats(Operation.CONVERT_TO).getLastNodeCount());
+
+		ExpressionMetrics.reset();
+		assertEquals(0, parse.getCount());
+		assertEquals(0, parse.getMaxNanos());
+		assertEquals(0, parse.getMedianNanos());
+	}
+
+	@Test
+	/**
+	 * Verifies that the other parsers are measured as PARSE too, and that a cache miss is only counted once.
+	 */
+	public void testOtherParsers () throws ExpressionParseException {
+		ExpressionMetrics.setEnabled(true);
+		final OperationStatsMXBean parse = ExpressionMetrics.getStats(Operation.PARSE);
+		new SimpleExpressionParser().parse("2*x+3*y", false);
+		assertEquals(1, parse.getCount());
+		assertEquals(7, parse.getLastNodeCount());
+		final CachingExpressionParser cache = new CachingExpressionParser(new LinearExpressionParser(), 100);
+		cache.parse("x*y", false); //a miss, measured by the LinearExpressionParser behind the cache
+		assertEquals(2, parse.getCount());
+		cache.parse("x * y", false); //a hit, measured by the cache
+		assertEquals(3, parse.getCount());
+		assertEquals(3, parse.getLastNodeCount());
+	}
+
+	@Test
+	/**
+	 * Verifies that the metrics can be read and turned on through JMX.
+	 */
+	public void testMBeans () throws ExpressionParseException, JMException {
+		final MBeanServer server = MBeanServerFactory.newMBeanServer();
+		ExpressionMetrics.registerMBeans(server);
+		final ObjectName control = new ObjectName("main:type=ExpressionMetrics");
+		final ObjectName parse = new ObjectName("main:type=ExpressionMetrics,operation=parse");
+		assertEquals(Boolean.FALSE, server.getAttribute(control, "Enabled"));
+		server.setAttribute(control, new Attribute("Enabled", true));
+		assertTrue(ExpressionMetrics.isEnabled());
+		_parser.parse("x*y", false);
+		assertEquals(1L, server.getAttribute(parse, "Count"));
+		assertEquals(3, server.getAttribute(parse, "LastNodeCount"));
+		assertEquals(40, ((long[]) server.getAttribute(parse, "LatencyHistogram")).length);
+		server.invoke(control, "reset", null, null);
+		assertEquals(0L, server.getAttribute(parse, "Count"));
+		assertTrue(server.isRegistered(new ObjectName("main:type=ExpressionMetrics,operation=getOtherPossibleConfigurations")));
+	}
+
+	@Test
+	/**
+	 * Verifies that operations are recorded as JFR events, even with the metrics off.
+	 */
+	public void testFlightRecorderEvents () throws ExpressionParseException, IOException {
+		final Path file = Files.createTempFile("expression-metrics", ".jfr");
+		try {
+			try (Recording recording = new Recording()) {
+				recording.enable("main.ExpressionOperation");
+				recording.start();
+				_parser.parse("2*x+3*y", false).deepCopy();
+				recording.stop();
+				recording.dump(file);
+			}
+			final List<String> operations = new ArrayList<String>();
+			for(RecordedEvent event : RecordingFile.readAllEvents(file)) {
+				if(event.getEventType().getName().equals("main.ExpressionOperation")) {
+					operations.add(event.getString("operation"));
+					assertEquals(7, event.getInt("nodeCount"));
+				}
+			}
+			assertEquals(Arrays.asList("parse", "deepCopy"), operations);
+			assertEquals(0, ExpressionMetrics.getStats(Operation.PARSE).getCount());
+		} finally {
+			Files.delete(file);
+		}
+	}
+}
@@ -0,0 +1,174 @@
+package tests;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import main.Expression;
+import main.ExpressionParseException;
+import main.ExpressionParser;
+import main.ExpressionReader;
+import main.ExpressionWriter;
+import main.LinearExpressionParser;
+import main.ParsedExpression;
+import main.SimpleExpressionParser;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Tests for writing expression trees in binary and reading them back.
+ */
+public class ExpressionSerializationTester {
+	private ExpressionParser _parser;
+
+	@Before
+	public void setUp () throws IOException {
+		_parser = new LinearExpressionParser();
+	}
+
+	/**
+	 * Writes expressions into a byte array
+	 * @param expressions the expressions to write
+	 * @return the bytes written
+	 */
+	private static byte[] write (Expression... expressions) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ExpressionWriter writer = new ExpressionWriter(bytes)) {
+			for (Expression expression : expressions) {
+				writer.write(expression);
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	@Test
+	/**
+	 * Verifies that expressions read back print the same as the expressions written, including literals
+	 * with leading zeros, literals too big for a long and variables used in more than one expression.
+	 */
+	public void testRoundTrip () throws ExpressionParseException, IOException {
+		final String[] expressions = { "x", "0", "2*x+3*y+4*z+(7+6*z)", "007*x + 123456789012345678901234567890", "((x))*(y+1)", "x*x*x+y" };
+		final Expression[] parsed = new Expression[expressions.length];
+		for (int i = 0; i < expressions.length; i++) {
+			parsed[i] = _parser.parse(expressions[i], false);
+		}
+		final ExpressionReader reader = new ExpressionReader(ByteBuffer.wrap(write(parsed)));
+		for (int i = 0; i < expressions.length; i++) {
+			assertTrue(reader.hasNext());
+			final ParsedExpression read = reader.next();
+			assertEquals(parsed[i].convertToString(0), read.convertToString(0));
+			assertNull(read.getParent());
+		}
+		assertFalse(reader.hasNext());
+	}
+
+	@Test
+	/**
+	 * Verifies that number literals that aren't integers, which SimpleExpressionParser allows, are read back.
+	 */
+	public void testNumberLiterals () throws ExpressionParseException, IOException {
+		final Expression parsed = new SimpleExpressionParser().parse("1.5*x+2.5e3", false);
+		final ParsedExpression read = new ExpressionReader(ByteBuffer.wrap(write(parsed))).next();
+		assertEquals(parsed.convertToString(0), read.convertToString(0));
+	}
+
+	@Test
+	/**
+	 * Verifies that a variable's name is only written the first time it is used.
+	 */
+	public void testSymbolsAreShared () throws ExpressionParseException, IOException {
+		final int once = write(_parser.parse("x", false)).length;
+		final int twice = write(_parser.parse("x", false), _parser.parse("x", false)).length;
+		// the second x is just a tag and a one byte symbol number
+		assertEquals(once + 2, twice);
+	}
+
+	@Test
+	/**
+	 * Verifies that a file of expressions can be mapped and read.
+	 */
+	public void testMappedFile () throws ExpressionParseException, IOException {
+		final Path file = Files.createTempFile("expressions", ".bin");
+		try {
+			final Expression expression = _parser.parse("10*a + (b + 300)*c", false);
+			final Expression[] expressions = new Expression[1000];
+			for (int i = 0; i < expressions.length; i++) {
+				expressions[i] = expression;
+			}
+			Files.write(file, write(expressions));
+			final ExpressionReader reader = ExpressionReader.open(file);
+			int count = 0;
+			while (reader.hasNext()) {
+				assertEquals(expression.convertToString(0), reader.next().convertToString(0));
+				count++;
+			}
+			assertEquals(expressions.length, count);
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test(timeout = 5000)
+	/**
+	 * Verifies that very deep trees can be written and read without running out of stack.
+	 */
+	public void testDeepNesting () throws ExpressionParseException, IOException {
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 100000; i++) {
+			sb.append("(x+");
+		}
+		sb.append('y');
+		for (int i = 0; i < 100000; i++) {
+			sb.append(')');
+		}
+		final byte[] bytes = write(_parser.parse(sb.toString(), false));
+		ParsedExpression current = new ExpressionReader(ByteBuffer.wrap(bytes)).next();
+		for (int i = 0; i < 100000; i++) {
+			assertEquals("()", current.getName());
+			current = (ParsedExpression) current.getChildren().get(0);
+			assertEquals("+", current.getName());
+			current = (ParsedExpression) current.getChildren().get(1);
+		}
+		assertEquals("y", current.getName());
+	}
+
+	@Test(expected = StreamCorruptedException.class)
+	/**
+	 * Verifies that a stream without the header is rejected.
+	 */
+	public void testBadHeader () throws IOException {
+		new ExpressionReader(ByteBuffer.wrap(new byte[] { 'x', '+', 'y', '\n' }));
+	}
+
+	@Test(expected = StreamCorruptedException.class)
+	/**
+	 * Verifies that a stream cut off in the middle of an expression is rejected.
+	 */
+	public void testTruncated () throws ExpressionParseException, IOException {
+		final byte[] bytes = write(_parser.parse("1+2+3", false));
+		final ByteBuffer cut = ByteBuffer.wrap(bytes, 0, bytes.length - 2);
+		new ExpressionReader(cut).next();
+	}
+
+	@Test(expected = StreamCorruptedException.class)
+	/**
+	 * Verifies that an operator with no children is rejected.
+	 */
+	public void testOperatorWithoutChildren () throws ExpressionParseException, IOException {
+		final byte[] bytes = write(_parser.parse("x+y", false));
+		bytes[5] = 0; //the sum's number of children, just after the header and its tag
+		new ExpressionReader(ByteBuffer.wrap(bytes)).next();
+	}
+
+	@Test(expected = StreamCorruptedException.class)
+	/**
+	 * Verifies that parentheses around more than one child are rejected.
+	 */
+	public void testParenthesesWithTwoChildren () throws ExpressionParseException, IOException {
+		final byte[] bytes = write(_parser.parse("x+y", false));
+		bytes[4] = 2; //turn the sum's tag into TAG_PARENTHESIZED, keeping its two children
+		new ExpressionReader(ByteBuffer.wrap(bytes)).next();
+	}
+}
@@ -0,0 +1,159 @@
+package tests;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import main.CompiledExpression;
+import main.Expression;
+import main.ExpressionParseException;
+import main.ExpressionParser;
+import main.ExpressionSimplifier;
+import main.LinearExpressionParser;
+import main.ParsedExpression;
+import main.SimplificationResult;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Tests for simplifying expressions.
+ */
+public class ExpressionSimplifierTester {
+	private ExpressionParser _parser;
+	private ExpressionSimplifier _simplifier;
+
+	@Before
+	public void setUp () throws IOException {
+		_parser = new LinearExpressionParser();
+		_simplifier = new ExpressionSimplifier();
+	}
+
+	/**
+	 * Helper function to simplify an expression and write the result out
+	 * @param input the expression to simplify
+	 * @return the simplified expression in infix notation
+	 */
+	private String simplify (String input) throws ExpressionParseException {
+		return ((ParsedExpression) _simplifier.simplify(_parser.parse(input, false)).getExpression()).toInfixString();
+	}
+
+	/**
+	 * Helper function to simplify an expression and write out its tree
+	 * @param input the expression to simplify
+	 * @return the simplified expression's tree, as convertToString writes it
+	 */
+	private String simplifyToTree (String input) throws ExpressionParseException {
+		return _simplifier.simplify(_parser.parse(input, false)).getExpression().convertToString(0);
+	}
+
+	@Test
+	/**
+	 * Verifies constant folding, including constants spread out over a product or sum.
+	 */
+	public void testFoldConstants () throws ExpressionParseException {
+		assertEquals("6*x", simplify("2*3*x"));
+		assertEquals("6*x", simplify("2*x*3"));
+		assertEquals("x+3", simplify("x+1+2"));
+		assertEquals("47", simplify("(1+2)*(3+4)*2+5"));
+	}
+
+	@Test
+	/**
+	 * Verifies that adding 0 and multiplying by 1 are removed, and multiplying by 0 gives 0.
+	 */
+	public void testIdentities () throws ExpressionParseException {
+		assertEquals("x", simplify("x+0"));
+		assertEquals("y", simplify("1*y"));
+		assertEquals("0", simplify("x*y*0"));
+		assertEquals("z", simplify("x*0+z"));
+		assertEquals("0", simplify("0+0"));
+	}
+
+	@Test
+	/**
+	 * Verifies that parentheses are only kept around a sum inside a product.
+	 */
+	public void testRedundantParentheses () throws ExpressionParseException {
+		assertEquals("x*y+z", simplify("(x*y)+(z)"));
+		assertEquals("x+y+z", simplify("x+(y+z)"));
+		assertEquals("x*(y+z)", simplify("x*((y+z))"));
+		assertEquals("x*(y+1)", simplify("x*(y+(1*1))"));
+		assertEquals("2*x", simplify("(2)*(x+0)"));
+	}
+
+	@Test
+	/**
+	 * Verifies that like terms are merged in the place of the first one, whatever order their factors are in.
+	 */
+	public void testLikeTerms () throws ExpressionParseException {
+		assertEquals("5*x", simplify("2*x+3*x"));
+		assertEquals("5*x+y", simplify("2*x+y+3*x"));
+		assertEquals("2*x*y", simplify("x*y+y*x"));
+		assertEquals("3*(a+b)*c+a", simplify("(a+b)*c+a+2*c*(b+a)"));
+		assertEquals("2*x+3", simplify("x+1+x+2"));
+		// merged terms are a single flat product, not a constant times the first term's product
+		assertEquals("*\n\t2\n\tx\n\ty\n", simplifyToTree("x*y+y*x"));
+		assertEquals("*\n\t3\n\tx\n\ty\n", simplifyToTree("x*y+2*y*x"));
+		assertEquals("+\n\t*\n\t\t3\n\t\t()\n\t\t\t+\n\t\t\t\ta\n\t\t\t\tb\n\t\tc\n\ta\n", simplifyToTree("(a+b)*c+a+2*c*(b+a)"));
+	}
+
+	@Test
+	/**
+	 * Verifies that simplified trees are already flat, so flattening them changes nothing.
+	 */
+	public void testFlat () throws ExpressionParseException {
+		final String[] inputs = { "x*y+y*x", "x*y+2*y*x", "(a+b)*c+a+2*c*(b+a)", "x*(y*z)+z*y*x*3", "(x+y)+(z+(x*1))" };
+		for(String input : inputs) {
+			final ParsedExpression simplified = (ParsedExpression) _simplifier.simplify(_parser.parse(input, false)).getExpression();
+			final String tree = simplified.convertToString(0);
+			simplified.flatten();
+			assertEquals(input, tree, simplified.convertToString(0));
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies that the node counts are reported and the input is not changed.
+	 */
+	public void testResult () throws ExpressionParseException {
+		final Expression input = _parser.parse("2*3*x", false);
+		final String before = input.convertToString(0);
+		final SimplificationResult result = _simplifier.simplify(input);
+		assertEquals(4, result.getOriginalNodeCount());
+		assertEquals(3, result.getNodeCount());
+		assertEquals(1, result.getRemovedNodeCount());
+		assertEquals(before, input.convertToString(0));
+		assertEquals(0, _simplifier.simplify(_parser.parse("x+y", false)).getRemovedNodeCount());
+	}
+
+	@Test
+	/**
+	 * Verifies that constants which would overflow a long are left alone rather than folded wrongly.
+	 */
+	public void testOverflow () throws ExpressionParseException {
+		assertEquals("9000000000000000000*2*x", simplify("9000000000000000000*2*x"));
+		assertEquals("100000000000000000000+1", simplify("100000000000000000000+1"));
+	}
+
+	@Test
+	/**
+	 * Verifies that the simplified expression has the same value as the original one.
+	 */
+	public void testSameValue () throws ExpressionParseException {
+		final Random random = new Random(7);
+		final String[] inputs = { "2*x+3*y+4*z+(7+6*z)", "a*b*c+((a+b)*(c+1))+a+b", "x*(y+0)*1+2*y*x+(x)", "(a+b)*(b+a)+0*c+c*1*2" };
+		for(String input : inputs) {
+			final Expression original = _parser.parse(input, false);
+			final Expression simplified = _simplifier.simplify(original).getExpression();
+			final CompiledExpression before = CompiledExpression.compile(original);
+			final CompiledExpression after = CompiledExpression.compile(simplified);
+			for(int i = 0; i < 20; i++) {
+				final Map<String, Double> values = new HashMap<String, Double>();
+				for(String variable : before.getVariables()) {
+					values.put(variable, (double) random.nextInt(100));
+				}
+				assertEquals(input, before.evaluate(values), after.evaluate(values), 0);
+			}
+		}
+	}
+}
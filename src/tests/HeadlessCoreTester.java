@@ -0,0 +1,39 @@
+package tests;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import main.ParsedExpression;
+
+import java.io.*;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+/**
+ * Tests that the expression tree can be used without JavaFX.
+ */
+public class HeadlessCoreTester {
+	@Test
+	/**
+	 * Verifies that parsing, copying, flattening and printing work when the classes are loaded by a class loader
+	 * that can only see the project's own classes and the JDK, so any use of JavaFX would fail with NoClassDefFoundError.
+	 */
+	public void testCoreLoadsWithoutJavaFX () throws Exception {
+		final URL classes = ParsedExpression.class.getProtectionDomain().getCodeSource().getLocation();
+		try (URLClassLoader loader = new URLClassLoader(new URL[] { classes }, null)) {
+			try {
+				loader.loadClass("javafx.scene.Node");
+				fail("JavaFX should not be visible to the test class loader");
+			} catch (ClassNotFoundException e) {
+				// expected
+			}
+			final Class<?> parserClass = loader.loadClass("main.SimpleExpressionParser");
+			final Object parser = parserClass.getConstructor().newInstance();
+			final Object expression = parserClass.getMethod("parse", String.class, boolean.class).invoke(parser, "2*x+(3+y)*4", false);
+			final Class<?> expressionClass = loader.loadClass("main.Expression");
+			final Object copy = expressionClass.getMethod("deepCopy").invoke(expression);
+			expressionClass.getMethod("flatten").invoke(copy);
+			assertEquals("+\n\t*\n\t\t2\n\t\tx\n\t*\n\t\t()\n\t\t\t+\n\t\t\t\t3\n\t\t\t\ty\n\t\t4\n",
+					expressionClass.getMethod("convertToString", int.class).invoke(copy, 0));
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package tests;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import main.ExpressionInterner;
+import main.ExpressionParseException;
+import main.ExpressionParser;
+import main.ImmutableExpression;
+import main.LinearExpressionParser;
+import main.ParsedExpression;
+import main.SimpleExpressionParser;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Tests for the persistent expression tree and interning.
+ */
+public class ImmutableExpressionTester {
+	private ExpressionParser _parser;
+
+	@Before
+	public void setUp () throws IOException {
+		_parser = new SimpleExpressionParser();
+	}
+
+	@Test
+	/**
+	 * Verifies that a snapshot prints the same as the tree it came from, and converts back to an equal mutable tree.
+	 */
+	public void testRoundTrip () throws ExpressionParseException {
+		final ParsedExpression expression = (ParsedExpression) _parser.parse("2*x+3*y+4*z+(7+6*z)", false);
+		final ImmutableExpression snapshot = ImmutableExpression.of(expression);
+		assertEquals(expression.convertToString(0), snapshot.convertToString(0));
+		final ParsedExpression copy = snapshot.toParsedExpression();
+		assertEquals(expression.convertToString(0), copy.convertToString(0));
+		assertSame(copy, copy.getChildren().get(3).getParent());
+	}
+
+	@Test
+	/**
+	 * Verifies that reordering deep in the tree only copies the path to the root, and leaves the old tree unchanged.
+	 */
+	public void testMoveChildSharesUnchangedSubtrees () throws ExpressionParseException {
+		final String original = "+\n\t*\n\t\t2\n\t\tx\n\t()\n\t\t+\n\t\t\t7\n\t\t\t*\n\t\t\t\t6\n\t\t\t\tz\n";
+		final ImmutableExpression snapshot = ImmutableExpression.of(_parser.parse("2*x+(7+6*z)", false));
+		final ImmutableExpression moved = snapshot.moveChild(new int[] { 1, 0 }, 1, 0);
+		assertEquals("+\n\t*\n\t\t2\n\t\tx\n\t()\n\t\t+\n\t\t\t*\n\t\t\t\t6\n\t\t\t\tz\n\t\t\t7\n", moved.convertToString(0));
+		assertEquals(original, snapshot.convertToString(0));
+		assertSame(snapshot.getChild(0), moved.getChild(0));
+		assertSame(snapshot.get(new int[] { 1, 0, 1 }), moved.get(new int[] { 1, 0, 0 }));
+		assertNotSame(snapshot.getChild(1), moved.getChild(1));
+	}
+
+	@Test
+	/**
+	 * Verifies moving a child to the right shifts the children in between to the left.
+	 */
+	public void testMoveChildRight () {
+		final ImmutableExpression sum = ImmutableExpression.of("+", ImmutableExpression.of("a"), ImmutableExpression.of("b"), ImmutableExpression.of("c"));
+		assertEquals("+\n\tb\n\tc\n\ta\n", sum.moveChild(0, 2).convertToString(0));
+		assertEquals("+\n\tc\n\ta\n\tb\n", sum.moveChild(2, 0).convertToString(0));
+	}
+
+	@Test
+	/**
+	 * Verifies that structurally equal trees are equal and hash the same.
+	 */
+	public void testStructuralEquality () throws ExpressionParseException {
+		final ImmutableExpression a = ImmutableExpression.of(_parser.parse("2*x+(7+6*z)", false));
+		final ImmutableExpression b = ImmutableExpression.of(_parser.parse("2 * x + (7 + 6 * z)", false));
+		assertEquals(a, b);
+		assertEquals(a.hashCode(), b.hashCode());
+		assertFalse(a.equals(a.moveChild(0, 1)));
+	}
+
+	@Test
+	/**
+	 * Verifies that interning shares repeated subterms, within one expression and across expressions.
+	 */
+	public void testInterning () throws ExpressionParseException {
+		final ExpressionInterner interner = new ExpressionInterner();
+		final LinearExpressionParser parser = new LinearExpressionParser();
+		final ImmutableExpression first = parser.parseInterned("2*x+(7+6*z)+2*x", interner);
+		// distinct nodes: 2, x, *, 7, 6, z, * (6*z), +, (), + (root) -- the second 2*x is shared
+		assertEquals(10, interner.size());
+		assertEquals(3, interner.getDeduplicatedCount());
+		assertSame(first.getChild(0), first.getChild(2));
+		final ImmutableExpression second = parser.parseInterned("(7+6*z)*2", interner);
+		assertSame(first.getChild(1), second.getChild(0));
+		assertSame(first.getChild(0).getChild(0), second.getChild(1));
+		assertEquals(11, interner.size());
+		assertEquals("+\n\t*\n\t\t2\n\t\tx\n\t()\n\t\t+\n\t\t\t7\n\t\t\t*\n\t\t\t\t6\n\t\t\t\tz\n\t*\n\t\t2\n\t\tx\n", first.convertToString(0));
+		assertSame(first, interner.intern(ImmutableExpression.of(_parser.parse("2*x+(7+6*z)+2*x", false))));
+	}
+
+	@Test
+	/**
+	 * Verifies that interning while parsing makes the same shared nodes as parsing and then interning, and that invalid
+	 * input is rejected.
+	 */
+	public void testInterningWhileParsing () throws ExpressionParseException {
+		final ExpressionInterner interner = new ExpressionInterner();
+		final LinearExpressionParser parser = new LinearExpressionParser();
+		final String[] expressions = { "x", "((x))", "2*x*y+3*(x+y)+2*x*y", "(a+b)*(a+b)*((c))" };
+		for (String expressionStr : expressions) {
+			final ImmutableExpression interned = parser.parseInterned(expressionStr, interner);
+			assertSame(interned, interner.intern(_parser.parse(expressionStr, false)));
+		}
+		final String[] invalid = { "", "2*", "(x", "x)", "x y" };
+		for (String expressionStr : invalid) {
+			try {
+				parser.parseInterned(expressionStr, interner);
+				fail("Parsed invalid expression: " + expressionStr);
+			} catch (ExpressionParseException epe) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies that reordering the children of sums and products, at any depth, gives the same canonical form.
+	 */
+	public void testCanonicalIgnoresReordering () throws ExpressionParseException {
+		final ImmutableExpression canonical = ImmutableExpression.canonical(_parser.parse("2*x+3*y+4*z+(7+6*z)", false));
+		assertEquals(canonical, ImmutableExpression.canonical(_parser.parse("(z*6+7)+z*4+y*3+x*2", false)));
+		assertEquals(canonical.hashCode(), ImmutableExpression.canonical(_parser.parse("x*2+(6*z+7)+3*y+4*z", false)).hashCode());
+	}
+
+	@Test
+	/**
+	 * Verifies that expressions which can't be reordered into each other have different canonical forms.
+	 */
+	public void testCanonicalKeepsMeaning () throws ExpressionParseException {
+		final String[][] different = {
+			{ "2*x+3", "2+3*x" },
+			{ "x+y", "(x+y)" },
+			{ "(x+y)*z", "x+y*z" },
+			{ "x*x+y", "x*y+x" },
+			{ "1+2", "12" },
+		};
+		for (String[] pair : different) {
+			assertFalse(pair[0] + " vs " + pair[1], ImmutableExpression.canonical(_parser.parse(pair[0], false))
+					.equals(ImmutableExpression.canonical(_parser.parse(pair[1], false))));
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies that canonical forms deduplicate reordered expressions in a hash set.
+	 */
+	public void testCanonicalDeduplicates () throws ExpressionParseException {
+		final String[] expressions = { "a*b+c", "c+b*a", "b*a+c", "a*c+b", "(a+b)*c", "c*(b+a)" };
+		final Set<ImmutableExpression> distinct = new HashSet<ImmutableExpression>();
+		for (String expressionStr : expressions) {
+			distinct.add(ImmutableExpression.canonical(_parser.parse(expressionStr, false)));
+		}
+		assertEquals(3, distinct.size());
+	}
+
+	@Test
+	/**
+	 * Verifies the equivalence API on mutable expressions, including after the editor reorders an expression.
+	 */
+	public void testEquivalence () throws ExpressionParseException {
+		final ParsedExpression expression = (ParsedExpression) _parser.parse("2*x+3*y+4*z", false);
+		final int hash = expression.equivalenceHash();
+		final ParsedExpression moving = (ParsedExpression) expression.getChildren().get(2);
+		expression.convertTo(moving.getConfiguration(0));
+		assertEquals("4*z+2*x+3*y", expression.toInfixString());
+		assertEquals(hash, expression.equivalenceHash());
+		assertTrue(expression.isEquivalent(_parser.parse("y*3+z*4+x*2", false)));
+		assertFalse(expression.isEquivalent(_parser.parse("2*x+3*y+4*w", false)));
+	}
+}
@@ -0,0 +1,161 @@
+package tests;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import main.Expression;
+import main.ExpressionParseException;
+import main.ExpressionParser;
+import main.LinearExpressionParser;
+import main.ParsedExpression;
+import main.SimpleExpressionParser;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Checks that LinearExpressionParser builds the same trees as SimpleExpressionParser, and that it copes with long and deeply nested input.
+ */
+public class LinearExpressionParserTester {
+	private ExpressionParser _parser;
+	private ExpressionParser _reference;
+
+	@Before
+	public void setUp () throws IOException {
+		_parser = new LinearExpressionParser();
+		_reference = new SimpleExpressionParser();
+	}
+
+	@Test
+	/**
+	 * Verifies that both parsers produce the same flattened tree for a range of valid expressions, and that it is the expected one.
+	 */
+	public void testSameTreesAsSimpleParser () throws ExpressionParseException {
+		final String[][] expressions = {
+			{ "x", "x\n" },
+			{ "42", "42\n" },
+			{ "a+b", "+\n\ta\n\tb\n" },
+			{ "13*x", "*\n\t13\n\tx\n" },
+			{ "4*(z+5*x)", "*\n\t4\n\t()\n\t\t+\n\t\t\tz\n\t\t\t*\n\t\t\t\t5\n\t\t\t\tx\n" },
+			{ "1+2+3", "+\n\t1\n\t2\n\t3\n" },
+			{ "(x+(x)+(x+x)+x)", "()\n\t+\n\t\tx\n\t\t()\n\t\t\tx\n\t\t()\n\t\t\t+\n\t\t\t\tx\n\t\t\t\tx\n\t\tx\n" },
+			{ "((2+(((z)))+3))", "()\n\t+\n\t\t2\n\t\t()\n\t\t\tz\n\t\t3\n" },
+			{ "2*x+3*y+4*z+(7+6*z)", "+\n\t*\n\t\t2\n\t\tx\n\t*\n\t\t3\n\t\ty\n\t*\n\t\t4\n\t\tz\n\t()\n\t\t+\n\t\t\t7\n\t\t\t*\n\t\t\t\t6\n\t\t\t\tz\n" },
+			{ "((420 + 69 + x) * x * 21 * 32) + 4 + 2 + 1", "+\n\t()\n\t\t*\n\t\t\t()\n\t\t\t\t+\n\t\t\t\t\t420\n\t\t\t\t\t69\n\t\t\t\t\tx\n\t\t\tx\n\t\t\t21\n\t\t\t32\n\t4\n\t2\n\t1\n" },
+			{ "(420 + (32 + x)) + (911 + 69 + x)", "+\n\t()\n\t\t+\n\t\t\t420\n\t\t\t()\n\t\t\t\t+\n\t\t\t\t\t32\n\t\t\t\t\tx\n\t()\n\t\t+\n\t\t\t911\n\t\t\t69\n\t\t\tx\n" },
+			{ "2 * x + x", "+\n\t*\n\t\t2\n\t\tx\n\tx\n" },
+			{ "2 + x * x", "+\n\t2\n\t*\n\t\tx\n\t\tx\n" },
+			{ "1 2 + x", "+\n\t12\n\tx\n" },
+			{ "a*b*c+d*e+f", "+\n\t*\n\t\ta\n\t\tb\n\t\tc\n\t*\n\t\td\n\t\te\n\tf\n" },
+		};
+		for(String[] expression : expressions) {
+			assertEquals(expression[0], expression[1], _parser.parse(expression[0], false).convertToString(0));
+			assertEquals(expression[0], expression[1], _reference.parse(expression[0], false).convertToString(0));
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies that every invalid expression is rejected.
+	 */
+	public void testInvalidExpressions () {
+		final String[] expressions = { "", " ", "1+2+", "+1", "((()))", "()()", "(x", "x)", "420x", "ab", "x*(", "2**3", "x\t+y" };
+		for(String expressionStr : expressions) {
+			try {
+				_parser.parse(expressionStr, false);
+				fail("Parsed invalid expression: " + expressionStr);
+			} catch (ExpressionParseException epe) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies that a product that starts with parentheses does not swallow a later sum.
+	 */
+	public void testParenthesizedProductThenSum () throws ExpressionParseException {
+		final String expressionStr = "(a)*b+c";
+		final String parseTreeStr = "+\n\t*\n\t\t()\n\t\t\ta\n\t\tb\n\tc\n";
+		assertEquals(parseTreeStr, _parser.parse(expressionStr, false).convertToString(0));
+	}
+
+	@Test(timeout = 5000)
+	/**
+	 * Verifies that a long sum of products parses without blowing up.
+	 */
+	public void testLongSumOfProducts () throws ExpressionParseException {
+		final StringBuilder sb = new StringBuilder("x");
+		for(int i = 0; i < 20000; i++) {
+			sb.append(" + ").append(i).append("*y");
+		}
+		final String tree = _parser.parse(sb.toString(), false).convertToString(0);
+		assertTrue(tree.startsWith("+\n\tx\n\t*\n\t\t0\n\t\ty\n"));
+	}
+
+	@Test
+	/**
+	 * Verifies that a range of a CharSequence, a Reader and a channel all parse to the same tree as the String.
+	 */
+	public void testStreamingInput () throws ExpressionParseException, IOException {
+		final String expressionStr = "4 * (z + 5 * x) + 1";
+		final String parseTreeStr = _parser.parse(expressionStr, false).convertToString(0);
+		final LinearExpressionParser parser = (LinearExpressionParser) _parser;
+		final StringBuilder surrounded = new StringBuilder("x+)").append(expressionStr).append("((");
+		assertEquals(parseTreeStr, parser.parse(surrounded, 3, expressionStr.length(), false).convertToString(0));
+		assertEquals(parseTreeStr, parser.parse(new StringReader(expressionStr), false).convertToString(0));
+		final InputStream bytes = new ByteArrayInputStream(expressionStr.getBytes(StandardCharsets.UTF_8));
+		assertEquals(parseTreeStr, parser.parse(Channels.newChannel(bytes), false).convertToString(0));
+	}
+
+	@Test(expected = ExpressionParseException.class)
+	/**
+	 * Verifies that invalid text from a Reader is rejected.
+	 */
+	public void testInvalidReaderInput () throws ExpressionParseException, IOException {
+		((LinearExpressionParser) _parser).parse(new StringReader("(1+2"), false);
+	}
+
+	@Test(timeout = 10000)
+	/**
+	 * Verifies that a Reader longer than the read buffer is streamed completely.
+	 */
+	public void testLongReaderInput () throws ExpressionParseException, IOException {
+		final StringBuilder sb = new StringBuilder("(1");
+		for(int i = 0; i < 100000; i++) {
+			sb.append(" * x");
+		}
+		sb.append(") + y");
+		final String tree = ((LinearExpressionParser) _parser).parse(new StringReader(sb.toString()), false).convertToString(0);
+		assertTrue(tree.endsWith("\t\t\tx\n\ty\n"));
+	}
+
+	@Test(timeout = 10000)
+	/**
+	 * Verifies that parsing, flattening, copying and printing don't overflow the stack on very deep nesting.
+	 */
+	public void testDeepNesting () throws ExpressionParseException {
+		final int depth = 100000;
+		final StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < depth; i++) {
+			sb.append("(x*");
+		}
+		sb.append('y');
+		for(int i = 0; i < depth; i++) {
+			sb.append(')');
+		}
+		final Expression expression = _parser.parse(sb.toString(), false);
+		final ParsedExpression copy = (ParsedExpression) expression.deepCopy();
+		copy.flatten();
+		ParsedExpression current = copy;
+		for(int i = 0; i < depth; i++) {
+			assertEquals("()", current.getName());
+			final ParsedExpression product = (ParsedExpression) current.getChildren().get(0);
+			assertEquals("*", product.getName());
+			assertEquals("x", ((ParsedExpression) product.getChildren().get(0)).getName());
+			current = (ParsedExpression) product.getChildren().get(1);
+		}
+		assertEquals("y\n", current.convertToString(0));
+	}
+}
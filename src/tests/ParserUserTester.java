@@ -8,6 +8,9 @@ import main.ParsedExpression;
 import main.CompoundExpression;
 import main.Expression;
 import main.ExpressionParseException;
+import main.ExpressionCursor;
+import main.ExpressionKind;
+import main.ExpressionListener;
 import main.ExpressionParser;
 import main.SimpleExpressionParser;
 
@@ -134,4 +137,247 @@ public class ParserUserTester {
         assertEquals(deepcopy.convertToString(0),original.convertToString(0));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testDeepCopyKeepsIdentifiers() throws ExpressionParseException {
+        final ParsedExpression original = (ParsedExpression)_parser.parse("x + x + 2", false);
+        final ParsedExpression other = (ParsedExpression)_parser.parse("x + x + 2", false);
+        final ParsedExpression copy = (ParsedExpression)original.deepCopy();
+        final Set<Long> identifiers = new HashSet<Long>();
+        for(int i = 0; i < 3; i++) {
+            final long identifier = ((ParsedExpression)original.getChildren().get(i)).getIdentifier();
+            assertEquals(identifier, ((ParsedExpression)copy.getChildren().get(i)).getIdentifier());
+            assertTrue(identifiers.add(identifier));
+            assertTrue(identifiers.add(((ParsedExpression)other.getChildren().get(i)).getIdentifier()));
+        }
+        // identifiers follow the order expressions are made in
+        assertTrue(new ParsedExpression("y").getIdentifier() > ((ParsedExpression)other.getChildren().get(2)).getIdentifier());
+    }
+
+    @Test
+    public void testConvertToMatchesRepeatedChildren() throws ExpressionParseException {
+        final ParsedExpression original = (ParsedExpression)_parser.parse("x + 2 * y + x", false);
+        final List<Expression> children = new ArrayList<Expression>(original.getChildren());
+        final ParsedExpression reordered = (ParsedExpression)original.deepCopy();
+        Collections.reverse(reordered.getChildren());
+        Collections.reverse(((ParsedExpression)reordered.getChildren().get(1)).getChildren());
+        original.convertTo(reordered);
+        assertEquals("+\n\tx\n\t*\n\t\ty\n\t\t2\n\tx\n", original.convertToString(0));
+        for(int i = 0; i < 3; i++) {
+            assertSame(children.get(2-i), original.getChildren().get(i));
+        }
+    }
+
+    @Test
+    public void testConvertToMismatchChangesNothing() throws ExpressionParseException {
+        final ParsedExpression original = (ParsedExpression)_parser.parse("2*x+3*y+(7+6*z)", false);
+        final String before = original.convertToString(0);
+        final List<ParsedExpression> notified = new ArrayList<ParsedExpression>();
+        original.setListener(new ExpressionListener() {
+            public void childrenReordered(ParsedExpression x) {
+                notified.add(x);
+            }
+            public void childReplaced(ParsedExpression x, int index) {
+                notified.add(x);
+            }
+        });
+        // the top level is reordered, but deep inside a child is missing
+        final ParsedExpression reordered = (ParsedExpression)original.deepCopy();
+        Collections.reverse(reordered.getChildren());
+        final ParsedExpression inner = (ParsedExpression)((ParsedExpression)reordered.getChildren().get(0)).getChildren().get(0);
+        inner.getChildren().remove(1);
+        try {
+            original.convertTo(reordered);
+            fail("Converted to an expression with different children");
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+        assertEquals(before, original.convertToString(0));
+        assertTrue(notified.isEmpty());
+        original.convertTo(((ParsedExpression)original.getChildren().get(1)).getConfiguration(0));
+        assertEquals("3*y+2*x+(7+6*z)", original.toInfixString());
+        assertEquals(1, notified.size());
+    }
+
+    @Test
+    public void testMoveChildMatchesGetConfiguration() throws ExpressionParseException {
+        final ParsedExpression expression = (ParsedExpression)_parser.parse("2*x+3*y+4*z+(7+6*z)", false);
+        final List<Expression> children = new ArrayList<Expression>(expression.getChildren());
+        final ParsedExpression moving = (ParsedExpression)expression.getChildren().get(1);
+        final String expected = moving.getConfiguration(3).convertToString(0);
+        final ExpressionCursor cursor = new ExpressionCursor(moving);
+        cursor.moveToParent();
+        cursor.moveChild(1, 3);
+        assertEquals(expected, expression.convertToString(0));
+        // the same children are moved, not copies of them
+        assertSame(children.get(0), expression.getChildren().get(0));
+        assertSame(moving, expression.getChildren().get(3));
+        assertSame(children.get(3), expression.getChildren().get(2));
+        assertSame(expression, moving.getParent());
+        expression.moveChild(3, 0);
+        assertEquals("+\n\t*\n\t\t3\n\t\ty\n\t*\n\t\t2\n\t\tx\n\t*\n\t\t4\n\t\tz\n\t()\n\t\t+\n\t\t\t7\n\t\t\t*\n\t\t\t\t6\n\t\t\t\tz\n",
+                expression.convertToString(0));
+        assertSame(moving, expression.getChildren().get(0));
+    }
+
+    @Test
+    public void testGetConfigurationMatchesOtherPossibleConfigurations() throws ExpressionParseException {
+        final ParsedExpression expression = (ParsedExpression)_parser.parse("2*x+3*y+4*z+(7+6*z)", false);
+        final ParsedExpression moving = (ParsedExpression)expression.getChildren().get(1);
+        final Map<Integer, Expression> configurations = moving.getOtherPossibleConfigurations();
+        for(int i = 0; i < 4; i++) {
+            assertEquals(configurations.get(i).convertToString(0), moving.getConfiguration(i).convertToString(0));
+        }
+        assertEquals("+\n\t*\n\t\t3\n\t\ty\n\t*\n\t\t2\n\t\tx\n\t*\n\t\t4\n\t\tz\n\t()\n\t\t+\n\t\t\t7\n\t\t\t*\n\t\t\t\t6\n\t\t\t\tz\n",
+                moving.getConfiguration(0).convertToString(0));
+    }
+
+    @Test
+    public void testCursorPaths() throws ExpressionParseException {
+        final ParsedExpression expression = (ParsedExpression)_parser.parse("2*x+(7+6*z)", false);
+        final ExpressionCursor cursor = ExpressionCursor.at(expression, new int[] { 1, 0, 1, 1 });
+        assertEquals("z", cursor.getExpression().getName());
+        assertArrayEquals(new int[] { 1, 0, 1, 1 }, cursor.getIndexPath());
+        assertArrayEquals(new int[] { 1, 0, 1, 1 }, new ExpressionCursor(cursor.getExpression()).getIndexPath());
+        assertTrue(cursor.moveToPreviousSibling());
+        assertEquals("6", cursor.getExpression().getName());
+        assertFalse(cursor.moveToPreviousSibling());
+        assertTrue(cursor.moveToParent());
+        assertEquals(1, cursor.getIndex());
+        assertEquals(3, cursor.getDepth());
+        cursor.moveToRoot();
+        assertSame(expression, cursor.getExpression());
+        assertEquals(0, cursor.getIndexPath().length);
+    }
+
+    @Test
+    public void testCursorPathsAfterReordering() throws ExpressionParseException {
+        final ParsedExpression expression = (ParsedExpression)_parser.parse("2*x+3*y+(7+6*z)", false);
+        final ParsedExpression z = (ParsedExpression)ExpressionCursor.at(expression, new int[] { 2, 0, 1, 1 }).getExpression();
+        final ParsedExpression y = (ParsedExpression)ExpressionCursor.at(expression, new int[] { 1, 1 }).getExpression();
+        expression.moveChild(2, 0);
+        assertArrayEquals(new int[] { 0, 0, 1, 1 }, new ExpressionCursor(z).getIndexPath());
+        assertArrayEquals(new int[] { 2, 1 }, new ExpressionCursor(y).getIndexPath());
+        expression.convertTo(((ParsedExpression)expression.getChildren().get(2)).getConfiguration(0));
+        assertArrayEquals(new int[] { 1, 0, 1, 1 }, new ExpressionCursor(z).getIndexPath());
+        assertArrayEquals(new int[] { 0, 1 }, new ExpressionCursor(y).getIndexPath());
+        // changing the list directly leaves the remembered indices stale, so they are found again
+        Collections.reverse(expression.getChildren());
+        Collections.reverse(((ParsedExpression)y.getParent()).getChildren());
+        assertArrayEquals(new int[] { 1, 0, 1, 1 }, new ExpressionCursor(z).getIndexPath());
+        assertArrayEquals(new int[] { 2, 0 }, new ExpressionCursor(y).getIndexPath());
+    }
+
+    @Test
+    public void testCursorReplace() throws ExpressionParseException {
+        final ParsedExpression expression = (ParsedExpression)_parser.parse("2*x+(7+6*z)", false);
+        final ExpressionCursor cursor = ExpressionCursor.at(expression, new int[] { 0, 1 });
+        final ParsedExpression replaced = cursor.replace((ParsedExpression)_parser.parse("y", false));
+        assertFalse(replaced.hasParent());
+        assertEquals("+\n\t*\n\t\t2\n\t\ty\n\t()\n\t\t+\n\t\t\t7\n\t\t\t*\n\t\t\t\t6\n\t\t\t\tz\n", expression.convertToString(0));
+        assertArrayEquals(new int[] { 0, 1 }, new ExpressionCursor(cursor.getExpression()).getIndexPath());
+        cursor.moveToParent();
+        cursor.reorder(((ParsedExpression)cursor.getExpression().getChildren().get(1)).getConfiguration(0));
+        assertEquals("+\n\t*\n\t\ty\n\t\t2\n\t()\n\t\t+\n\t\t\t7\n\t\t\t*\n\t\t\t\t6\n\t\t\t\tz\n", expression.convertToString(0));
+    }
+
+    @Test
+    public void testFlattenHandBuiltTree() {
+        // + [ + [a, * [b, * [c, d]]], + [e, f], g ] -- merged children's children go to the end, in the order they are merged
+        final ParsedExpression top = new ParsedExpression("+");
+        final ParsedExpression left = new ParsedExpression("+");
+        final ParsedExpression product = new ParsedExpression("*");
+        final ParsedExpression innerProduct = new ParsedExpression("*");
+        final ParsedExpression right = new ParsedExpression("+");
+        innerProduct.addSubexpression(new ParsedExpression("c"));
+        innerProduct.addSubexpression(new ParsedExpression("d"));
+        product.addSubexpression(new ParsedExpression("b"));
+        product.addSubexpression(innerProduct);
+        left.addSubexpression(new ParsedExpression("a"));
+        left.addSubexpression(product);
+        right.addSubexpression(new ParsedExpression("e"));
+        right.addSubexpression(new ParsedExpression("f"));
+        top.addSubexpression(left);
+        top.addSubexpression(right);
+        top.addSubexpression(new ParsedExpression("g"));
+        top.flatten();
+        assertEquals("+\n\tg\n\ta\n\t*\n\t\tb\n\t\tc\n\t\td\n\te\n\tf\n", top.convertToString(0));
+        assertSame(top, top.getChildren().get(2).getParent());
+    }
+
+    @Test(timeout = 5000)
+    public void testFlattenLongLeftNestedSum() {
+        ParsedExpression sum = new ParsedExpression("x");
+        for(int i = 0; i < 100000; i++) {
+            final ParsedExpression next = new ParsedExpression("+");
+            next.addSubexpression(sum);
+            next.addSubexpression(new ParsedExpression("y"));
+            sum = next;
+        }
+        sum.flatten();
+        assertEquals(100001, sum.getChildren().size());
+        assertEquals("x", ((ParsedExpression)sum.getChildren().get(99999)).getName());
+    }
+
+    @Test
+    public void testKinds() throws ExpressionParseException {
+        final ParsedExpression sum = (ParsedExpression) _parser.parse("12 + x * (3)", false);
+        assertEquals(ExpressionKind.SUM, sum.getKind());
+        final ParsedExpression literal = (ParsedExpression) sum.getChildren().get(0);
+        assertEquals(ExpressionKind.INTEGER_LITERAL, literal.getKind());
+        assertEquals(12, literal.getValue());
+        assertTrue(literal.isLiteral());
+        final ParsedExpression product = (ParsedExpression) sum.getChildren().get(1);
+        assertEquals(ExpressionKind.PRODUCT, product.getKind());
+        assertFalse(product.isLiteral());
+        assertEquals(ExpressionKind.VARIABLE, ((ParsedExpression) product.getChildren().get(0)).getKind());
+        assertEquals(ExpressionKind.PARENTHESIZED, ((ParsedExpression) product.getChildren().get(1)).getKind());
+        assertEquals(ExpressionKind.SUM, ((ParsedExpression) sum.deepCopy()).getKind());
+        final ParsedExpression decimal = new ParsedExpression("1.5"); // SimpleExpressionParser accepts these
+        assertEquals(ExpressionKind.NUMBER_LITERAL, decimal.getKind());
+        assertTrue(decimal.isLiteral());
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testLiteralTooBigForLong() {
+        final ParsedExpression literal = new ParsedExpression("99999999999999999999");
+        assertEquals(ExpressionKind.INTEGER_LITERAL, literal.getKind());
+        literal.getValue();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownName() {
+        new ParsedExpression("-");
+    }
+
+    @Test
+    public void testWriteTreeMatchesConvertToString() throws ExpressionParseException, IOException {
+        final ParsedExpression expression = (ParsedExpression) _parser.parse("2*x+3*y+4*z+(7+6*z)", false);
+        final StringWriter writer = new StringWriter();
+        expression.writeTree(writer, 2);
+        assertEquals(expression.convertToString(2), writer.toString());
+    }
+
+    @Test
+    public void testInfixRoundTrip() throws ExpressionParseException {
+        final String[] expressions = { "x", "12", "2*x+3*y+4*z+(7+6*z)", "(x)*(y+1)", "a*(b)+c", "(((1+2)*3)+4)*x" };
+        for (String expressionStr : expressions) {
+            final ParsedExpression expression = (ParsedExpression) _parser.parse(expressionStr, false);
+            final String infix = expression.toInfixString();
+            assertEquals(expressionStr.replace(" ", ""), infix);
+            assertEquals(expression.convertToString(0), _parser.parse(infix, false).convertToString(0));
+        }
+    }
+
+    @Test
+    public void testInfixParenthesizesSumInProduct() {
+        final ParsedExpression product = new ParsedExpression("*");
+        final ParsedExpression sum = new ParsedExpression("+");
+        sum.addSubexpression(new ParsedExpression("x"));
+        sum.addSubexpression(new ParsedExpression("1"));
+        product.addSubexpression(new ParsedExpression("2"));
+        product.addSubexpression(sum);
+        assertEquals("2*(x+1)", product.toInfixString());
+        // written on its own, the sum doesn't depend on where it is in the tree
+        assertEquals("x+1", sum.toInfixString());
+    }
+}
@@ -0,0 +1,99 @@
+package tests;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+import main.Expression;
+import main.ExpressionParseException;
+import main.ExpressionParser;
+import main.LinearExpressionParser;
+import main.ParsedExpression;
+import main.SimpleExpressionParser;
+
+import java.io.*;
+
+/**
+ * Checks that SimpleExpressionParser keeps the rules it always had where they differ from LinearExpressionParser's,
+ * and that it copes with deeply nested input.
+ */
+public class SimpleExpressionParserTester {
+	private ExpressionParser _parser;
+
+	@Before
+	public void setUp () throws IOException {
+		_parser = new SimpleExpressionParser();
+	}
+
+	@Test
+	/**
+	 * Verifies that anything Double.parseDouble accepts is a literal, which LinearExpressionParser rejects.
+	 */
+	public void testNumberLiterals () throws ExpressionParseException {
+		assertEquals("*\n\t1.5\n\tx\n", _parser.parse("1.5*x", false).convertToString(0));
+		assertEquals("+\n\tx\n\t1e+5\n", _parser.parse("x+1e+5", false).convertToString(0));
+		assertEquals("+1\n", _parser.parse("+1", false).convertToString(0));
+		try {
+			new LinearExpressionParser().parse("1.5*x", false);
+			fail("LinearExpressionParser only has integer literals");
+		} catch (ExpressionParseException epe) {
+			// expected
+		}
+	}
+
+	@Test
+	/**
+	 * Verifies that an expression starting with parentheses is split at the operator right after them.
+	 */
+	public void testSplitAfterParentheses () throws ExpressionParseException {
+		assertEquals("*\n\t()\n\t\ta\n\t+\n\t\tb\n\t\tc\n", _parser.parse("(a)*b+c", false).convertToString(0));
+	}
+
+	@Test
+	/**
+	 * Verifies that every invalid expression is rejected with a parse exception.
+	 */
+	public void testInvalidExpressions () {
+		final String[] expressions = { "", " ", "1+2+", "((()))", "()()", "(x", "x)", ")x(", "420x", "ab", "x*(", "2**3", "5++3", "(a)b", "1e+5+x" };
+		for(String expressionStr : expressions) {
+			try {
+				_parser.parse(expressionStr, false);
+				fail("Parsed invalid expression: " + expressionStr);
+			} catch (ExpressionParseException epe) {
+				// expected
+			}
+		}
+	}
+
+	@Test(timeout = 10000)
+	/**
+	 * Verifies that parsing doesn't overflow the stack on very deep nesting.
+	 */
+	public void testDeepNesting () throws ExpressionParseException {
+		final int depth = 100000;
+		final StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < depth; i++) {
+			sb.append("(x*");
+		}
+		sb.append('y');
+		for(int i = 0; i < depth; i++) {
+			sb.append(')');
+		}
+		ParsedExpression current = (ParsedExpression) _parser.parse(sb.toString(), false);
+		for(int i = 0; i < depth; i++) {
+			assertEquals("()", current.getName());
+			current = (ParsedExpression) ((ParsedExpression) current.getChildren().get(0)).getChildren().get(1);
+		}
+		assertEquals("y\n", current.convertToString(0));
+
+		final StringBuilder parens = new StringBuilder();
+		for(int i = 0; i < depth; i++) {
+			parens.append('(');
+		}
+		parens.append('z');
+		for(int i = 0; i < depth; i++) {
+			parens.append(')');
+		}
+		final Expression collapsed = _parser.parse(parens.toString(), false);
+		assertEquals("()\n\tz\n", collapsed.convertToString(0));
+	}
+}